@@ -42,6 +42,18 @@ public interface SimpleFailover<T> extends AutoCloseable {
      */
     void down(@Nonnull T object);
 
+    /**
+     * 批量通知failover组件一组资源的调用结果，效果和对每个资源分别调用{@link #success(Object)}、{@link #fail(Object)}一样，
+     * 先处理成功的资源，再处理失败的资源。适合一次请求扇出到多个资源的场景，实现类可以把多次权重更新合并成一次。
+     *
+     * @param successes 调用成功的资源
+     * @param failures 调用失败的资源
+     */
+    default void report(@Nonnull Collection<T> successes, @Nonnull Collection<T> failures) {
+        successes.forEach(this::success);
+        failures.forEach(this::fail);
+    }
+
     /**
      * 获取一个可使用的资源，如果所有的资源都down了，可能会返回null，注意判空。
      *
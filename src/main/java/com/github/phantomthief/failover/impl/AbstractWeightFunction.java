@@ -68,6 +68,13 @@ public abstract class AbstractWeightFunction<T> implements WeightFunction<T> {
     protected abstract double computeFail(double maxWeight, double minWeight,
             int priority, double currentOldWeight, T resource);
 
+    @Override
+    public void onRemoved(T resource) {
+        if (recoverCountMap != null) {
+            recoverCountMap.remove(resource);
+        }
+    }
+
     @Override
     public boolean needCheck(double maxWeight, double minWeight, int priority, double currentWeight, T resource) {
         return currentWeight <= minWeight && maxWeight > 0;
@@ -0,0 +1,115 @@
+package com.github.phantomthief.failover.impl;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+
+import com.github.phantomthief.failover.impl.PriorityFailover.GroupInfo;
+import com.github.phantomthief.failover.impl.PriorityFailover.ResInfo;
+import com.github.phantomthief.failover.util.AliasMethod;
+
+/**
+ * 根据分组的当前权重异步构建的AliasMethod，用于分组部分资源不健康的时候仍然保持O(1)的选择。
+ *
+ * 权重变化时（在group锁内）调用{@link #onWeightChanged()}，如果还没有待执行的重建任务，就在rebuildDelay之后
+ * 在线程池中重建一次，这段时间内的多次变化合并为一次重建。重建完成以后原子的替换掉旧的表。
+ *
+ * 表的内容可能落后于当前权重，如果落后的时间超过maxStaleness（比如线程池繁忙，重建任务迟迟没有执行），
+ * {@link #get()}返回null，由调用方使用精确的选择方式。
+ */
+final class AsyncAliasTable<T> {
+
+    private static final Logger logger = getLogger(AsyncAliasTable.class);
+
+    private final GroupInfo<T> group;
+    private final ScheduledExecutorService executor;
+    private final long rebuildDelayNanos;
+    private final long maxStalenessNanos;
+
+    /**
+     * 以下两个字段只在group锁内修改。
+     */
+    private volatile boolean rebuildScheduled;
+
+    /**
+     * 表构建以后第一次权重变化的时间，0表示表和当前权重一致。
+     */
+    private volatile long dirtySinceNanos;
+
+    @Nullable
+    private volatile AliasMethod<ResInfo<T>> aliasMethod;
+
+    AsyncAliasTable(GroupInfo<T> group, ScheduledExecutorService executor, long rebuildDelayNanos,
+            long maxStalenessNanos) {
+        this.group = group;
+        this.executor = executor;
+        this.rebuildDelayNanos = rebuildDelayNanos;
+        this.maxStalenessNanos = maxStalenessNanos;
+        rebuild();
+    }
+
+    /**
+     * 调用方需要持有group的锁。
+     */
+    void onWeightChanged() {
+        if (dirtySinceNanos == 0) {
+            long now = System.nanoTime();
+            // 0 is reserved for "not dirty"
+            dirtySinceNanos = now == 0 ? 1 : now;
+        }
+        if (!rebuildScheduled) {
+            rebuildScheduled = true;
+            try {
+                executor.schedule(this::rebuild, rebuildDelayNanos, NANOSECONDS);
+            } catch (Throwable e) {
+                rebuildScheduled = false;
+                logger.warn("schedule alias table rebuild fail: {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * @return 按（不超过maxStaleness的）当前权重随机选择的资源，表不可用的时候返回null
+     */
+    @Nullable
+    ResInfo<T> get() {
+        AliasMethod<ResInfo<T>> alias = aliasMethod;
+        if (alias == null) {
+            return null;
+        }
+        long dirtySince = dirtySinceNanos;
+        if (dirtySince != 0 && System.nanoTime() - dirtySince > maxStalenessNanos) {
+            return null;
+        }
+        return alias.get();
+    }
+
+    void rebuild() {
+        synchronized (group) {
+            // changes after this point will schedule another rebuild
+            rebuildScheduled = false;
+            dirtySinceNanos = 0;
+        }
+        try {
+            ResInfo<T>[] resources = group.resources;
+            Map<ResInfo<T>, Double> weightMap = new LinkedHashMap<>(resources.length * 2);
+            for (int i = 0; i < resources.length; i++) {
+                double weight = group.currentWeight(i);
+                if (weight > 0) {
+                    weightMap.put(resources[i], weight);
+                }
+            }
+            aliasMethod = weightMap.isEmpty() ? null : new AliasMethod<>(weightMap);
+        } catch (Throwable e) {
+            aliasMethod = null;
+            logger.warn("rebuild alias table fail: {}", e.toString());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.phantomthief.failover.impl;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.phantomthief.failover.impl.checker.AsyncChecker;
+
+/**
+ * PriorityFailover和WeightFailover的健康检查任务驱动{@link AsyncChecker}的公共逻辑。
+ */
+final class AsyncChecks {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncChecks.class);
+
+    private AsyncChecks() {
+    }
+
+    /**
+     * 发起一次带超时的检查，返回的future一定会正常结束：检查抛出异常、返回null、异常结束或者超时（同时会取消原来的future）
+     * 都视为不健康，超时任务提交失败时同样视为不健康。
+     *
+     * @param timer 用来调度超时的线程池
+     */
+    static <T> CompletableFuture<Boolean> checkWithTimeout(AsyncChecker<? super T> checker, T resource,
+            ScheduledExecutorService timer, long timeoutNanos) {
+        CompletableFuture<Boolean> source;
+        try {
+            source = checker.check(resource);
+        } catch (Throwable e) {
+            logger.error("async check fail: {}", e.toString());
+            return completedFuture(false);
+        }
+        if (source == null) {
+            logger.error("async check fail: checker returned null for {}", resource);
+            return completedFuture(false);
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        Future<?> timeout;
+        try {
+            timeout = timer.schedule(() -> {
+                if (result.complete(false)) {
+                    source.cancel(true);
+                }
+            }, timeoutNanos, NANOSECONDS);
+        } catch (Throwable e) {
+            logger.error("async check fail, schedule timeout fail: {}", e.toString());
+            source.cancel(true);
+            return completedFuture(false);
+        }
+        source.whenComplete((ok, e) -> {
+            timeout.cancel(false);
+            result.complete(e == null && Boolean.TRUE.equals(ok));
+        });
+        return result;
+    }
+}
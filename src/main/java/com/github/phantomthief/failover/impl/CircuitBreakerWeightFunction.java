@@ -0,0 +1,181 @@
+package com.github.phantomthief.failover.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 熔断器风格的权重函数。{@link SimpleWeightFunction}和{@link RatioWeightFunction}每次成功/失败都会修改权重，
+ * 偶发的少量错误会导致权重不停的变化；这个函数为每个资源维护一个滑动窗口（最近windowSize次调用的结果），
+ * 只有窗口内的错误率超过阈值时才修改权重，资源处于三种状态之一（由当前权重表示）：
+ * <ul>
+ *     <li>关闭（当前权重等于最大权重）：正常使用，失败时如果窗口内的调用次数不少于minimumCalls并且错误率不低于
+ *     failureRateThreshold，权重设置为最小权重（打开），否则权重不变</li>
+ *     <li>打开（当前权重小于等于最小权重）：{@link #needCheck}返回true，由健康检查探活，
+ *     探活成功以后权重设置为最大权重的halfOpenWeightRate（半开），同时清空窗口</li>
+ *     <li>半开（其它情况）：只分配少量流量，任何一次失败都会回到打开状态；窗口内累积了halfOpenCalls次调用并且错误率
+ *     低于阈值时恢复到最大权重（关闭）</li>
+ * </ul>
+ *
+ * 滑动窗口是无锁的环形数组，结果通过{@link #onResult(boolean, Object)}记录，包括权重已经到达上下限的调用。
+ * 窗口只按调用次数计算，没有时间限制：调用很少的资源，窗口里可能是很久以前的结果，需要按时间淘汰的场景不适合使用这个函数。
+ * 资源被{@link PriorityFailoverManager}删除时通过{@link #onRemoved(Object)}清理它的窗口。
+ */
+@ThreadSafe
+public class CircuitBreakerWeightFunction<T> implements WeightFunction<T> {
+
+    private static final int DEFAULT_WINDOW_SIZE = 100;
+    private static final int DEFAULT_MINIMUM_CALLS = 20;
+    private static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+    private static final double DEFAULT_HALF_OPEN_WEIGHT_RATE = 0.1;
+    private static final int DEFAULT_HALF_OPEN_CALLS = 10;
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double halfOpenWeightRate;
+    private final int halfOpenCalls;
+
+    private final ConcurrentHashMap<T, SlidingWindow> windows = new ConcurrentHashMap<>();
+
+    /**
+     * 使用默认的windowSize为100，minimumCalls为20，failureRateThreshold为0.5，halfOpenWeightRate为0.1，
+     * halfOpenCalls为10。
+     */
+    public CircuitBreakerWeightFunction() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE_THRESHOLD,
+                DEFAULT_HALF_OPEN_WEIGHT_RATE, DEFAULT_HALF_OPEN_CALLS);
+    }
+
+    /**
+     * 构造一个实例，指定5个参数。
+     * @param windowSize 滑动窗口的大小（最近多少次调用）
+     * @param minimumCalls 窗口内至少有多少次调用才会熔断
+     * @param failureRateThreshold 熔断的错误率阈值
+     * @param halfOpenWeightRate 半开状态的权重（相对于最大权重）
+     * @param halfOpenCalls 半开状态下累积多少次调用以后判断是否恢复
+     */
+    public CircuitBreakerWeightFunction(int windowSize, int minimumCalls, double failureRateThreshold,
+            double halfOpenWeightRate, int halfOpenCalls) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("bad windowSize:" + windowSize);
+        }
+        if (minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("bad minimumCalls:" + minimumCalls);
+        }
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("bad failureRateThreshold:" + failureRateThreshold);
+        }
+        if (halfOpenWeightRate <= 0 || halfOpenWeightRate > 1) {
+            throw new IllegalArgumentException("bad halfOpenWeightRate:" + halfOpenWeightRate);
+        }
+        if (halfOpenCalls < 1 || halfOpenCalls > windowSize) {
+            throw new IllegalArgumentException("bad halfOpenCalls:" + halfOpenCalls);
+        }
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.halfOpenWeightRate = halfOpenWeightRate;
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    @Override
+    public void onResult(boolean success, T resource) {
+        window(resource).record(success);
+    }
+
+    @Override
+    public double success(double maxWeight, double minWeight, int priority, double currentOldWeight, T resource) {
+        if (currentOldWeight <= minWeight) {
+            // probe success, open -> half open
+            windows.put(resource, new SlidingWindow(windowSize));
+            return Math.max(maxWeight * halfOpenWeightRate, minWeight);
+        }
+        SlidingWindow window = window(resource);
+        if (window.total() >= halfOpenCalls && window.failureRate() < failureRateThreshold) {
+            // half open -> closed
+            return maxWeight;
+        }
+        return currentOldWeight;
+    }
+
+    @Override
+    public double fail(double maxWeight, double minWeight, int priority, double currentOldWeight, T resource) {
+        if (currentOldWeight < maxWeight) {
+            // half open -> open
+            return minWeight;
+        }
+        SlidingWindow window = window(resource);
+        if (window.total() >= minimumCalls && window.failureRate() >= failureRateThreshold) {
+            // closed -> open
+            return minWeight;
+        }
+        return currentOldWeight;
+    }
+
+    @Override
+    public void onRemoved(T resource) {
+        windows.remove(resource);
+    }
+
+    @Override
+    public boolean needCheck(double maxWeight, double minWeight, int priority, double currentWeight, T resource) {
+        return currentWeight <= minWeight && maxWeight > 0;
+    }
+
+    private SlidingWindow window(T resource) {
+        SlidingWindow window = windows.get(resource);
+        if (window == null) {
+            window = windows.computeIfAbsent(resource, k -> new SlidingWindow(windowSize));
+        }
+        return window;
+    }
+
+    /**
+     * 基于计数的滑动窗口，一个环形数组记录最近size次调用的结果，同时维护总数和失败数。
+     * 每次记录是一次getAndSet，根据被覆盖的旧值调整计数，所以计数可能短暂的不一致，但不会累积误差。
+     */
+    @ThreadSafe
+    static final class SlidingWindow {
+
+        private static final int EMPTY = 0;
+        private static final int SUCCESS = 1;
+        private static final int FAIL = 2;
+
+        private final int size;
+        private final AtomicIntegerArray slots;
+        private final AtomicLong index = new AtomicLong();
+        private final AtomicInteger total = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        SlidingWindow(int size) {
+            this.size = size;
+            this.slots = new AtomicIntegerArray(size);
+        }
+
+        void record(boolean success) {
+            int slot = (int) (index.getAndIncrement() % size);
+            int old = slots.getAndSet(slot, success ? SUCCESS : FAIL);
+            if (old == EMPTY) {
+                total.incrementAndGet();
+            } else if (old == FAIL) {
+                failures.decrementAndGet();
+            }
+            if (!success) {
+                failures.incrementAndGet();
+            }
+        }
+
+        int total() {
+            return total.get();
+        }
+
+        double failureRate() {
+            int t = total.get();
+            return t == 0 ? 0 : Math.max(0, Math.min(1, (double) failures.get() / t));
+        }
+    }
+}
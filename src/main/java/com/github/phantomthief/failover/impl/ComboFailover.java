@@ -10,7 +10,9 @@ import static java.util.stream.Collectors.toSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -128,6 +130,25 @@ public class ComboFailover<T> implements Failover<T>, Iterable<Failover<T>> {
         getByObject(object).forEach(failover -> failover.success(object));
     }
 
+    /**
+     * 按资源所在的failover分组以后，对每个failover只调用一次批量报告。
+     */
+    @Override
+    public void report(@Nonnull Collection<T> successes, @Nonnull Collection<T> failures) {
+        Map<Failover<T>, TwoTuple<List<T>, List<T>>> byFailover = new LinkedHashMap<>();
+        for (T object : successes) {
+            getByObject(object).forEach(failover -> byFailover
+                    .computeIfAbsent(failover, it -> tuple(new ArrayList<>(), new ArrayList<>()))
+                    .getFirst().add(object));
+        }
+        for (T object : failures) {
+            getByObject(object).forEach(failover -> byFailover
+                    .computeIfAbsent(failover, it -> tuple(new ArrayList<>(), new ArrayList<>()))
+                    .getSecond().add(object));
+        }
+        byFailover.forEach((failover, results) -> failover.report(results.getFirst(), results.getSecond()));
+    }
+
     private Collection<Failover<T>> getByObject(T object) {
         Collection<Failover<T>> list = mapByObject.get(object);
         if (recheckOnMiss && list.isEmpty()) { // surely it's wrong. build it again.
@@ -0,0 +1,87 @@
+package com.github.phantomthief.failover.impl;
+
+import static java.lang.Double.doubleToRawLongBits;
+import static java.lang.Double.longBitsToDouble;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 一个资源的自适应并发度上限，使用AIMD（加性增、乘性减）算法调整：
+ * <ul>
+ *     <li>调用成功，并且当前并发度达到上限的一半（说明上限确实在限制调用方），上限加1/limit，
+ *     也就是大约每一轮（limit次）成功调用上限加1</li>
+ *     <li>调用失败，或者延迟超过latencyThreshold（如果设置了），上限乘以{@link #BACKOFF_RATIO}</li>
+ * </ul>
+ * 上限始终在[minLimit, maxLimit]之间。
+ */
+@ThreadSafe
+final class ConcurrencyLimit {
+
+    static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * 表示没有报告延迟。
+     */
+    static final long NO_LATENCY = -1;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+
+    /**
+     * 当前上限（double的bits），用CAS更新。
+     */
+    private final AtomicLong limit;
+
+    /**
+     * @param latencyThresholdNanos 延迟超过这个值视为过载，小于等于0表示不根据延迟调整
+     */
+    ConcurrencyLimit(int initLimit, int minLimit, int maxLimit, long latencyThresholdNanos) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.limit = new AtomicLong(doubleToRawLongBits(Math.max(minLimit, Math.min(initLimit, maxLimit))));
+    }
+
+    int get() {
+        return (int) longBitsToDouble(limit.get());
+    }
+
+    /**
+     * @param concurrency 本次调用结束前的并发度
+     * @param latencyNanos 本次调用的延迟，没有报告时是{@link #NO_LATENCY}
+     */
+    void onSuccess(int concurrency, long latencyNanos) {
+        if (latencyThresholdNanos > 0 && latencyNanos >= latencyThresholdNanos) {
+            onFail();
+            return;
+        }
+        while (true) {
+            long bits = limit.get();
+            double current = longBitsToDouble(bits);
+            if (concurrency * 2 < current || current >= maxLimit) {
+                return;
+            }
+            double newLimit = Math.min(maxLimit, current + 1 / current);
+            if (limit.compareAndSet(bits, doubleToRawLongBits(newLimit))) {
+                return;
+            }
+        }
+    }
+
+    void onFail() {
+        while (true) {
+            long bits = limit.get();
+            double current = longBitsToDouble(bits);
+            if (current <= minLimit) {
+                return;
+            }
+            double newLimit = Math.max(minLimit, current * BACKOFF_RATIO);
+            if (limit.compareAndSet(bits, doubleToRawLongBits(newLimit))) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.phantomthief.failover.impl;
+
+/**
+ * failover内部状态变化的诊断事件（Java Flight Recorder）。
+ *
+ * 这是Java 8使用的版本，所有方法都是空的，会被JIT内联消除。Java 11以上使用multi-release jar中
+ * META-INF/versions/11下的同名类（源码在src/main/java11），把事件提交给JFR，没有开始录制或者没有开启对应事件时
+ * 只有一次{@code isEnabled}判断的开销，不会创建事件对象。
+ *
+ * 事件的名称都以com.github.phantomthief.failover开头，比如开启所有事件：
+ * {@code jcmd <pid> JFR.start settings=profile} 然后在JMC中按Failover分类查看。
+ */
+final class FailoverEvents {
+
+    private FailoverEvents() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 资源的权重变化，权重降到最小权重时同时记录一个down事件，从最小权重升上来时同时记录一个recovered事件。
+     * @param failover failover的名称，可能为null
+     */
+    static void weightChanged(String failover, Object resource, double oldWeight, double newWeight,
+            double minWeight, double maxWeight) {
+    }
+
+    /**
+     * 执行了一次健康检查。
+     * @param durationNanos 检查的耗时，对于并行检查和异步检查是从提交到拿到结果的时间
+     */
+    static void checkExecuted(String failover, Object resource, boolean healthy, long durationNanos) {
+    }
+
+    /**
+     * getOneAvailable/getOneAvailableExclude没有可用的资源，返回了null。
+     * @param exclusions 排除的资源数
+     */
+    static void selectionMiss(String failover, int exclusions) {
+    }
+
+    /**
+     * 是否需要记录{@link #groupSwitch}事件。记录分组切换需要在每次选中资源时读写一个共享的字段，
+     * 所以调用方先判断这个方法，没有开启时完全跳过。Java 8总是返回false。
+     */
+    static boolean isGroupSwitchEnabled() {
+        return false;
+    }
+
+    /**
+     * PriorityFailover选中资源所在分组的优先级和上一次不同，比如高优先级的分组不健康，请求切换到了低优先级的分组，
+     * 或者高优先级的分组恢复以后切换回来。持续选择同一个分组时不会重复记录。
+     * @param previousPriority 上一次选中资源所在分组的优先级
+     * @param selectedPriority 本次选中资源所在分组的优先级
+     */
+    static void groupSwitch(String failover, int previousPriority, int selectedPriority) {
+    }
+}
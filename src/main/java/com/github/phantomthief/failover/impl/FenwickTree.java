@@ -0,0 +1,82 @@
+package com.github.phantomthief.failover.impl;
+
+import static java.lang.Double.doubleToRawLongBits;
+import static java.lang.Double.longBitsToDouble;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 树状数组（Binary Indexed Tree），用于在部分资源不健康的分组中按权重随机选择，
+ * 更新单个权重和按前缀和查找都是O(log n)。
+ *
+ * 写操作（{@link #add(int, double)}、{@link #reset(double[])}）需要调用方串行化，PriorityFailover中是在group锁内调用的；
+ * 读操作（{@link #search(double)}）不加锁，和写并发的时候可能读到不一致的中间状态，这只会影响一次选择的随机分布，
+ * 查找结果总是在[0, size]之间，调用方需要处理返回size或者选中权重为0的资源的情况。
+ */
+final class FenwickTree {
+
+    private final int size;
+
+    /**
+     * 下标从1开始，保存double的bits。
+     */
+    private final AtomicLongArray tree;
+
+    /**
+     * 不大于size的最大的2的幂。
+     */
+    private final int highestStep;
+
+    FenwickTree(double[] weights) {
+        this.size = weights.length;
+        this.tree = new AtomicLongArray(size + 1);
+        this.highestStep = size == 0 ? 0 : Integer.highestOneBit(size);
+        reset(weights);
+    }
+
+    /**
+     * 用一组新的权重重建整棵树，用于清除增量更新累积的浮点误差，O(n)。
+     */
+    void reset(double[] weights) {
+        double[] nodes = new double[size + 1];
+        for (int i = 1; i <= size; i++) {
+            nodes[i] += weights[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= size) {
+                nodes[parent] += nodes[i];
+            }
+        }
+        for (int i = 1; i <= size; i++) {
+            tree.set(i, doubleToRawLongBits(nodes[i]));
+        }
+    }
+
+    /**
+     * 第index个元素（从0开始）的权重增加delta。
+     */
+    void add(int index, double delta) {
+        for (int i = index + 1; i <= size; i += i & -i) {
+            tree.set(i, doubleToRawLongBits(longBitsToDouble(tree.get(i)) + delta));
+        }
+    }
+
+    /**
+     * @param value 应该在[0, 总权重)之间
+     * @return 满足 weights[0] + ... + weights[i] > value 的最小的i，找不到返回size
+     */
+    int search(double value) {
+        int pos = 0;
+        double remaining = value;
+        for (int step = highestStep; step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= size) {
+                double w = longBitsToDouble(tree.get(next));
+                if (w <= remaining) {
+                    pos = next;
+                    remaining -= w;
+                }
+            }
+        }
+        return pos;
+    }
+}
@@ -2,14 +2,18 @@ package com.github.phantomthief.failover.impl;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 
+import com.github.phantomthief.failover.impl.checker.AsyncChecker;
 import com.github.phantomthief.util.ThrowableFunction;
 import com.github.phantomthief.util.ThrowablePredicate;
 
@@ -94,6 +98,20 @@ public class GenericWeightFailoverBuilder<E> {
         return this;
     }
 
+    @CheckReturnValue
+    @Nonnull
+    public GenericWeightFailoverBuilder<E> checkExecutor(@Nonnull ScheduledExecutorService checkExecutor) {
+        builder.checkExecutor(checkExecutor);
+        return this;
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    public GenericWeightFailoverBuilder<E> metrics(boolean metrics) {
+        builder.metrics(metrics);
+        return this;
+    }
+
     @CheckReturnValue
     @Nonnull
     public GenericWeightFailoverBuilder<E>
@@ -111,6 +129,14 @@ public class GenericWeightFailoverBuilder<E> {
         return this;
     }
 
+    @CheckReturnValue
+    @Nonnull
+    public GenericWeightFailoverBuilder<E> asyncChecker(@Nonnull AsyncChecker<? super E> asyncChecker,
+            @Nonnegative double recoveredInitRate, long timeout, @Nonnull TimeUnit unit) {
+        builder.asyncChecker(asyncChecker, recoveredInitRate, timeout, unit);
+        return this;
+    }
+
     @CheckReturnValue
     @Nonnull
     public GenericWeightFailoverBuilder<E> filter(Predicate<E> filter) {
@@ -118,6 +144,14 @@ public class GenericWeightFailoverBuilder<E> {
         return this;
     }
 
+    @CheckReturnValue
+    @Nonnull
+    public GenericWeightFailoverBuilder<E> keyedFilter(Function<? super E, ?> filterKey,
+            Supplier<?> contextFilterKey) {
+        builder.keyedFilter(filterKey, contextFilterKey);
+        return this;
+    }
+
     @Nonnull
     public WeightFailover<E> build(Collection<? extends E> original) {
         return builder.build(original);
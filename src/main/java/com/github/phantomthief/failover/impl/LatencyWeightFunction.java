@@ -0,0 +1,99 @@
+package com.github.phantomthief.failover.impl;
+
+import java.time.Duration;
+
+/**
+ * 根据调用延迟调整权重的函数，在{@link RatioWeightFunction}的基础上，用延迟的指数加权移动平均（peak EWMA）
+ * 限制资源的权重上限：平均延迟不超过targetLatency的资源可以恢复到最大权重，超过的按比例降低，
+ * 比如平均延迟是targetLatency的10倍，权重最多只有最大权重的1/10（不低于minLatencyRateOfMaxWeight）。
+ *
+ * 需要配合{@link PriorityFailover#success(Object, long)}报告延迟，每个资源的移动平均值保存在PriorityFailover内部，
+ * 不报告延迟的{@link PriorityFailover#success(Object)}和{@link RatioWeightFunction}的行为一样。
+ *
+ * 移动平均值的计算方式：如果新的延迟大于平均值，直接把平均值设置为新的延迟（peak），这样变慢的资源会立即被降权；
+ * 否则按照距离上次更新的时间衰减，衰减系数是exp(-elapsed / decay)。
+ */
+public class LatencyWeightFunction<T> extends RatioWeightFunction<T> {
+
+    private static final Duration DEFAULT_DECAY = Duration.ofSeconds(10);
+    private static final double DEFAULT_MIN_LATENCY_RATE = 0.05;
+
+    private final double targetLatencyNanos;
+    private final double decayNanos;
+    private final double minLatencyRateOfMaxWeight;
+
+    /**
+     * 使用默认的decay为10秒，minLatencyRateOfMaxWeight为0.05，其它参数和{@link RatioWeightFunction}的默认值一样。
+     * @param targetLatency 目标延迟，平均延迟不超过这个值的资源可以恢复到最大权重
+     */
+    public LatencyWeightFunction(Duration targetLatency) {
+        this(targetLatency, DEFAULT_DECAY, DEFAULT_MIN_LATENCY_RATE);
+    }
+
+    /**
+     * 其它参数和{@link RatioWeightFunction}的默认值一样。
+     * @param targetLatency 目标延迟，平均延迟不超过这个值的资源可以恢复到最大权重
+     * @param decay 移动平均的衰减时间，越小对延迟变化越敏感
+     * @param minLatencyRateOfMaxWeight 因为延迟降低的权重，最低降到最大权重的多少
+     */
+    public LatencyWeightFunction(Duration targetLatency, Duration decay, double minLatencyRateOfMaxWeight) {
+        super();
+        if (targetLatency.isNegative() || targetLatency.isZero()) {
+            throw new IllegalArgumentException("bad targetLatency:" + targetLatency);
+        }
+        if (decay.isNegative() || decay.isZero()) {
+            throw new IllegalArgumentException("bad decay:" + decay);
+        }
+        if (minLatencyRateOfMaxWeight <= 0 || minLatencyRateOfMaxWeight > 1) {
+            throw new IllegalArgumentException("bad minLatencyRateOfMaxWeight:" + minLatencyRateOfMaxWeight);
+        }
+        this.targetLatencyNanos = targetLatency.toNanos();
+        this.decayNanos = decay.toNanos();
+        this.minLatencyRateOfMaxWeight = minLatencyRateOfMaxWeight;
+    }
+
+    /**
+     * 计算新的延迟移动平均值。
+     * @param oldLatencyEwma 旧的平均值（纳秒）
+     * @param elapsedNanos 距离上次更新的时间
+     * @param latencyNanos 本次调用的延迟
+     * @return 新的平均值（纳秒）
+     */
+    public double updateLatency(double oldLatencyEwma, long elapsedNanos, long latencyNanos) {
+        if (latencyNanos >= oldLatencyEwma) {
+            return latencyNanos;
+        }
+        double w = Math.exp(-Math.max(elapsedNanos, 0) / decayNanos);
+        return oldLatencyEwma * w + latencyNanos * (1 - w);
+    }
+
+    /**
+     * 一个资源访问成功后，根据延迟计算新的权重，权重的增长方式和{@link RatioWeightFunction}一样，但是不超过延迟对应的上限。
+     *
+     * @param maxWeight 这个资源的最大权重
+     * @param minWeight 这个资源的最小权重
+     * @param priority 这个资源优先级
+     * @param currentOldWeight 这个资源的当前权重（计算前）
+     * @param resource 这个资源
+     * @param latencyEwma 包括本次调用在内的延迟移动平均值（纳秒）
+     * @return 新的权重
+     */
+    public double success(double maxWeight, double minWeight, int priority, double currentOldWeight, T resource,
+            double latencyEwma) {
+        double newWeight = success(maxWeight, minWeight, priority, currentOldWeight, resource);
+        return Math.min(newWeight, latencyLimit(maxWeight, minWeight, latencyEwma));
+    }
+
+    /**
+     * 延迟对应的权重上限，成功时权重只会增长，所以当前权重已经等于这个上限时，新的权重一定不变。
+     *
+     * @param maxWeight 这个资源的最大权重
+     * @param minWeight 这个资源的最小权重
+     * @param latencyEwma 延迟移动平均值（纳秒）
+     * @return 权重上限，在minWeight和maxWeight之间
+     */
+    public double latencyLimit(double maxWeight, double minWeight, double latencyEwma) {
+        double rate = latencyEwma <= targetLatencyNanos ? 1 : targetLatencyNanos / latencyEwma;
+        return Math.max(maxWeight * Math.max(rate, minLatencyRateOfMaxWeight), minWeight);
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.phantomthief.failover.impl;
+
+import javax.annotation.Nonnull;
+
+/**
+ * 遍历failover中每个资源的调用统计，遍历过程不需要复制统计数据，需要的数据直接从{@link ResourceMetrics}读取。
+ *
+ * @see PriorityFailover#visitMetrics(MetricsVisitor)
+ * @see WeightFailover#visitMetrics(MetricsVisitor)
+ * @see PartitionFailover#visitMetrics(MetricsVisitor)
+ */
+@FunctionalInterface
+public interface MetricsVisitor<T> {
+
+    /**
+     * @param resource 资源
+     * @param metrics 这个资源的调用统计，读到的是实时的值，不是快照
+     */
+    void visit(@Nonnull T resource, @Nonnull ResourceMetrics metrics);
+}
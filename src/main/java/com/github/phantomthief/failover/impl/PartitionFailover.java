@@ -117,6 +117,17 @@ public class PartitionFailover<T> implements Failover<T>, Closeable {
         subtractConcurrency(object);
     }
 
+    /**
+     * 报告调用成功以及本次调用的延迟，延迟只用于调用统计。
+     * @param object 被调用的资源
+     * @param latencyNanos 本次调用的延迟（纳秒）
+     * @see WeightFailover#success(Object, long)
+     */
+    public void success(@Nonnull T object, long latencyNanos) {
+        weightFailover.success(object, latencyNanos);
+        subtractConcurrency(object);
+    }
+
     @Nullable
     private ResEntry<T> lookup(Object object) {
         ResEntry<T>[] refCopy = resources;
@@ -166,7 +177,7 @@ public class PartitionFailover<T> implements Failover<T>, Closeable {
             return;
         }
         List<T> excludes = Stream.of(resourceRefCopy).map(r -> r.object).collect(toList());
-        T newOne = weightFailover.getOneAvailableExclude(excludes);
+        T newOne = weightFailover.selectOne(excludes);
         if (newOne == null) {
             //no more available
             return;
@@ -233,6 +244,7 @@ public class PartitionFailover<T> implements Failover<T>, Closeable {
         }
         if (one != null) {
             addConcurrency(one);
+            weightFailover.recordPick(one);
         }
         return one;
     }
@@ -280,6 +292,24 @@ public class PartitionFailover<T> implements Failover<T>, Closeable {
         weightFailover.close();
     }
 
+    /**
+     * 获取一个资源的调用统计，需要通过{@link PartitionFailoverBuilder#metrics(boolean)}开启。
+     * @param resource 资源
+     * @return 资源的调用统计（实时的），没有开启或者资源不存在时返回null
+     */
+    @Nullable
+    public ResourceMetrics getMetrics(T resource) {
+        return weightFailover.getMetrics(resource);
+    }
+
+    /**
+     * 遍历所有资源（包括不在当前分区中的资源）的调用统计，没有开启调用统计时什么都不做。
+     * @param visitor 访问者
+     */
+    public void visitMetrics(@Nonnull MetricsVisitor<T> visitor) {
+        weightFailover.visitMetrics(visitor);
+    }
+
     @Override
     public List<T> getAvailable(int n) {
         // we don't know which resource is used, so this method is not supported
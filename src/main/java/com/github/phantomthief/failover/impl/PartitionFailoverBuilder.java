@@ -147,6 +147,13 @@ public class PartitionFailoverBuilder<T> {
         return this;
     }
 
+    @CheckReturnValue
+    @Nonnull
+    public PartitionFailoverBuilder<T> metrics(boolean metrics) {
+        weightFailoverBuilder.metrics(metrics);
+        return this;
+    }
+
     @CheckReturnValue
     @Nonnull
     public PartitionFailoverBuilder<T> filter(@Nonnull Predicate<T> filter) {
@@ -1,18 +1,27 @@
 package com.github.phantomthief.failover.impl;
 
+import static java.lang.Double.doubleToRawLongBits;
+import static java.lang.Double.longBitsToDouble;
 import static java.util.Arrays.stream;
 import static java.util.stream.Collectors.toMap;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -22,6 +31,7 @@ import com.github.phantomthief.failover.SimpleFailover;
 import com.github.phantomthief.failover.impl.PriorityFailoverBuilder.PriorityFailoverConfig;
 import com.github.phantomthief.failover.impl.PriorityFailoverBuilder.ResConfig;
 import com.github.phantomthief.failover.util.AliasMethod;
+import com.google.common.annotations.VisibleForTesting;
 
 /**
  * SimpleFailover的实现，绝大部分场景下可以代替WeightFailover，性能和功能都要更强一些。
@@ -44,10 +54,61 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
 
     private final boolean concurrentCtrl;
     private final boolean manualConcurrencyControl;
+    private final boolean powerOfTwoChoices;
+
+    /**
+     * 开启了并发度控制和自适应并发度上限。
+     */
+    private final boolean concurrencyLimited;
+
+    /**
+     * 开启了慢启动。
+     */
+    private final boolean slowStart;
+
+    /**
+     * 权重回调是{@link LatencyWeightFunction}时不为null。
+     */
+    @Nullable
+    private final LatencyWeightFunction<T> latencyWeightFunction;
+
+    /**
+     * 上一次选中资源所在分组的优先级，只在变化时记录{@link FailoverEvents#groupSwitch}事件。
+     * 只有{@link FailoverEvents#isGroupSwitchEnabled()}时才读写，避免没有录制时在选择路径上产生共享写；
+     * 所以开始录制以后的第一个切换事件的previousPriority可能是很久以前的值。
+     */
+    @VisibleForTesting
+    volatile int lastSelectedPriority;
+
     private static final int MAX_CONCURRENCY = 100000;
 
+    /**
+     * 有排除条件时，按权重随机命中被排除资源后的重试次数，超过以后扫描整个分组。
+     */
+    private static final int EXCLUDE_RETRY_TIMES = 3;
+
+    private static final int[] EMPTY_INDEXES = new int[0];
+
     @SuppressWarnings("checkstyle:VisibilityModifier")
     static class ResInfo<T> {
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicLongFieldUpdater<ResInfo> WARM_UP_UPDATER =
+                AtomicLongFieldUpdater.newUpdater(ResInfo.class, "warmUpStartNanos");
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicLongFieldUpdater<ResInfo> LATENCY_EWMA_UPDATER =
+                AtomicLongFieldUpdater.newUpdater(ResInfo.class, "latencyEwmaBits");
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<ResInfo> CHECKING_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(ResInfo.class, "checking");
+
+        /**
+         * latencyEwmaBits的初始值，表示还没有报告过延迟（NaN的一种bits，正常的平均值不会是这个值）。
+         */
+        static final long NO_LATENCY_SAMPLE = -1L;
+
         final T resource;
         final int priority;
         final double maxWeight;
@@ -59,10 +120,52 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
         @Nullable
         final Concurrency concurrency;
 
+        /**
+         * 开启并发度控制和自适应并发度上限时不为null。
+         */
+        @Nullable
+        final ConcurrencyLimit concurrencyLimit;
+
+        /**
+         * 只能在持有group锁的时候修改，见{@link #setWeight(ResInfo, double)}。
+         */
         volatile double currentWeight;
 
+        /**
+         * 所在的分组和在分组中的下标，在PriorityFailover构造时设置。PriorityFailoverManager重建分组时，
+         * 没有变化的资源会复用原来的ResInfo，这时group会被替换为新的分组，所以修改权重时加锁以后需要确认group没有变化。
+         * indexInGroup总是先于group写入。
+         */
+        volatile GroupInfo<T> group;
+        int indexInGroup;
+
+        /**
+         * 延迟的移动平均值（纳秒，double的bits）和上次更新的时间，只在使用{@link LatencyWeightFunction}时更新，
+         * 不需要持有group锁，平均值用CAS更新，见{@link #updateLatencyEwma}。
+         */
+        volatile long latencyEwmaBits = NO_LATENCY_SAMPLE;
+        volatile long latencyUpdateNanos;
+
+        /**
+         * 开启慢启动时，资源恢复（或者新添加）的时间，0表示不在预热中，预热结束以后在选择资源的时候清零。
+         */
+        volatile long warmUpStartNanos;
+
+        /**
+         * 并行健康检查时，这个资源是否有检查还在线程池中运行（包括超时以后被取消、但是没有响应中断的检查），
+         * 为1时不会再次提交检查，见{@link #tryStartCheck()}。
+         */
+        volatile int checking;
+
+        /**
+         * 开启调用统计时不为null。
+         */
+        @Nullable
+        final ResourceMetrics metrics;
+
         ResInfo(T resource, int priority, double maxWeight, double minWeight,
-                double initWeight, boolean concurrencyCtrl) {
+                double initWeight, boolean concurrencyCtrl, @Nullable ConcurrencyLimit concurrencyLimit,
+                boolean metricsEnabled) {
             this.resource = resource;
             this.priority = priority;
             this.maxWeight = maxWeight;
@@ -70,9 +173,97 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
             this.currentWeight = initWeight;
             if (concurrencyCtrl) {
                 concurrency = new Concurrency();
+                this.concurrencyLimit = concurrencyLimit;
             } else {
                 concurrency = null;
+                this.concurrencyLimit = null;
             }
+            this.metrics = metricsEnabled ? new ResourceMetrics() : null;
+        }
+
+        /**
+         * PriorityFailoverManager重建分组时使用，接管老的ResInfo的状态：并发度计数器、自适应并发度上限和调用统计是共享的
+         * （老的failover上还没有结束的调用仍然会正确的减少并发度），延迟和预热状态是复制的。
+         */
+        ResInfo(ResInfo<T> old, int priority, double maxWeight, double minWeight, double currentWeight) {
+            this.resource = old.resource;
+            this.priority = priority;
+            this.maxWeight = maxWeight;
+            this.minWeight = minWeight;
+            this.currentWeight = currentWeight;
+            this.concurrency = old.concurrency;
+            this.concurrencyLimit = old.concurrencyLimit;
+            this.metrics = old.metrics;
+            this.latencyEwmaBits = old.latencyEwmaBits;
+            this.latencyUpdateNanos = old.latencyUpdateNanos;
+            this.warmUpStartNanos = old.warmUpStartNanos;
+        }
+
+        /**
+         * @return 是否开启了自适应并发度上限，并且当前并发度已经达到上限
+         */
+        boolean reachLimit() {
+            return concurrencyLimit != null && concurrency.get() >= concurrencyLimit.get();
+        }
+
+        /**
+         * 把本次调用的延迟合并进移动平均值，第一次报告延迟时直接使用这次的延迟。
+         * 并发更新时平均值不会丢失（CAS重试），更新时间是最后写入的那个，对衰减的影响可以忽略。
+         *
+         * @return 新的平均值（纳秒）
+         */
+        double updateLatencyEwma(LatencyWeightFunction<?> weightFunction, long latencyNanos) {
+            long now = System.nanoTime();
+            long elapsed = now - latencyUpdateNanos;
+            while (true) {
+                long oldBits = latencyEwmaBits;
+                double latencyEwma;
+                if (oldBits == NO_LATENCY_SAMPLE) {
+                    latencyEwma = latencyNanos;
+                } else {
+                    latencyEwma = weightFunction.updateLatency(longBitsToDouble(oldBits), elapsed, latencyNanos);
+                }
+                if (LATENCY_EWMA_UPDATER.compareAndSet(this, oldBits, doubleToRawLongBits(latencyEwma))) {
+                    latencyUpdateNanos = now;
+                    return latencyEwma;
+                }
+            }
+        }
+
+        /**
+         * @return 没有正在运行的检查时标记为检查中并返回true，否则返回false
+         */
+        boolean tryStartCheck() {
+            return CHECKING_UPDATER.compareAndSet(this, 0, 1);
+        }
+
+        void endCheck() {
+            checking = 0;
+        }
+
+        void startWarmUp() {
+            long now = System.nanoTime();
+            // 0 is reserved for "not warming up"
+            warmUpStartNanos = now == 0 ? 1 : now;
+        }
+
+        /**
+         * @return 慢启动的权重系数，从slowStartInitRate线性增长到1，不在预热中时返回1
+         */
+        double warmUpFactor() {
+            long start = warmUpStartNanos;
+            if (start == 0) {
+                return 1;
+            }
+            long elapsed = System.nanoTime() - start;
+            long slowStartNanos = group.slowStartNanos;
+            if (elapsed >= slowStartNanos) {
+                // a new warm up may have been started concurrently, don't clear it
+                WARM_UP_UPDATER.compareAndSet(this, start, 0);
+                return 1;
+            }
+            double initRate = group.slowStartInitRate;
+            return initRate + (1 - initRate) * Math.max(0, elapsed) / slowStartNanos;
         }
     }
 
@@ -90,18 +281,63 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
         @Nullable
         final AliasMethod<ResInfo<T>> aliasMethod;
 
-        int roundRobinIndex;
+        /**
+         * 只有所有资源的最大权重相同时才可能轮询，其他情况下为null。
+         */
+        @Nullable
+        final StripedRoundRobin roundRobinCounter;
 
+        /**
+         * 组内每个资源的当前权重（double的bits），和resources的下标一一对应，选择资源时顺序扫描这个数组，
+         * 不需要逐个访问ResInfo对象。只能在持有本group锁的时候修改。
+         */
+        final AtomicLongArray currentWeights;
+
+        /**
+         * 资源数超过{@link PriorityFailoverConfig#getFenwickTreeThreshold()}时不为null，
+         * 分组不健康的时候用它做O(log n)的选择，只能在持有本group锁的时候修改。
+         */
+        @Nullable
+        final FenwickTree fenwickTree;
+
+        /**
+         * 开启{@link PriorityFailoverBuilder#asyncAliasMethod}时不为null，在PriorityFailover构造时设置。
+         */
+        @Nullable
+        AsyncAliasTable<T> asyncAliasTable;
+
+        /**
+         * 慢启动的时长和初始比例，没有开启慢启动时slowStartNanos为0，在PriorityFailover构造时设置。
+         */
+        long slowStartNanos;
+        double slowStartInitRate;
+
+        /**
+         * 每次权重变化都会用增量重新生成，只能在持有本group锁的时候修改。
+         */
         volatile GroupWeightInfo groupWeightInfo;
 
         GroupInfo(int priority, @Nonnull ResInfo<T>[] resources, double totalMaxWeight,
-                boolean maxWeightSame, @Nullable AliasMethod<ResInfo<T>> aliasMethod, GroupWeightInfo groupWeightInfo) {
+                boolean maxWeightSame, @Nullable AliasMethod<ResInfo<T>> aliasMethod, GroupWeightInfo groupWeightInfo,
+                boolean useFenwickTree) {
             this.priority = priority;
             this.resources = resources;
             this.totalMaxWeight = totalMaxWeight;
             this.maxWeightSame = maxWeightSame;
             this.aliasMethod = aliasMethod;
             this.groupWeightInfo = groupWeightInfo;
+            this.currentWeights = new AtomicLongArray(resources.length);
+            double[] weights = new double[resources.length];
+            for (int i = 0; i < resources.length; i++) {
+                weights[i] = resources[i].currentWeight;
+                currentWeights.set(i, doubleToRawLongBits(weights[i]));
+            }
+            this.fenwickTree = useFenwickTree ? new FenwickTree(weights) : null;
+            this.roundRobinCounter = maxWeightSame ? new StripedRoundRobin(resources.length) : null;
+        }
+
+        double currentWeight(int index) {
+            return longBitsToDouble(currentWeights.get(index));
         }
     }
 
@@ -110,47 +346,70 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
         final boolean roundRobin;
         final boolean aliasMethod;
 
+        /**
+         * 增量维护的总权重，浮点误差可能导致它和各资源权重之和有微小的差异，选择的时候有兜底逻辑。
+         * 所有资源都恢复到最大权重时会重置为totalMaxWeight。
+         */
         final double totalCurrentWeight;
 
-        final double[] currentWeightCopy;
+        /**
+         * 当前权重小于最大权重的资源个数，用整数计数来判断是否全部健康，不受浮点误差影响。
+         */
+        final int notFullCount;
 
         final double healthyRate;
 
         GroupWeightInfo(boolean maxWeightSame, double totalCurrentWeight,
-                double totalMaxWeight, double[] currentWeightCopy, @Nullable AliasMethod<?> aliasMethod) {
+                double totalMaxWeight, int notFullCount, @Nullable AliasMethod<?> aliasMethod) {
             this.totalCurrentWeight = totalCurrentWeight;
+            this.notFullCount = notFullCount;
             if (totalMaxWeight == 0) {
                 this.healthyRate = 0;
             } else {
                 this.healthyRate = totalCurrentWeight / totalMaxWeight;
             }
-            this.currentWeightCopy = currentWeightCopy;
-            this.roundRobin = maxWeightSame && totalCurrentWeight == totalMaxWeight && totalMaxWeight > 0;
-            this.aliasMethod = aliasMethod != null && totalCurrentWeight == totalMaxWeight;
+            this.roundRobin = maxWeightSame && notFullCount == 0 && totalMaxWeight > 0;
+            this.aliasMethod = aliasMethod != null && notFullCount == 0;
         }
     }
 
-    @SuppressWarnings("checkstyle:VisibilityModifier")
+    /**
+     * 资源的并发度计数器。每个计数器独占一段128字节的空间，相邻资源的计数器不会落在同一个缓存行里（伪共享）；
+     * 加减都是一次原子加（LOCK XADD），不会像CAS循环那样在竞争激烈时反复重试，越界的情况很少见，事后再补偿回来。
+     * 补偿之前可能短暂的读到越界的值，所以读取时会再限制一次范围。
+     */
     static class Concurrency {
-        final AtomicInteger atomicValue = new AtomicInteger(0);
+
+        /**
+         * 计数器放在数组中间，前后各留出64字节的填充。
+         */
+        private static final int INDEX = 16;
+        private static final int PADDED_LENGTH = 32;
+
+        private final AtomicIntegerArray cell = new AtomicIntegerArray(PADDED_LENGTH);
 
         Concurrency() {
         }
 
         public void incr() {
-            atomicValue.updateAndGet(v -> Math.min(v + 1, MAX_CONCURRENCY));
+            if (cell.getAndIncrement(INDEX) >= MAX_CONCURRENCY) {
+                cell.getAndDecrement(INDEX);
+            }
         }
 
         public void decr() {
-            atomicValue.updateAndGet(v -> Math.max(v - 1, 0));
+            if (cell.getAndDecrement(INDEX) <= 0) {
+                cell.getAndIncrement(INDEX);
+            }
         }
 
         public int get() {
-            return atomicValue.get();
+            int value = cell.get(INDEX);
+            return Math.max(0, Math.min(value, MAX_CONCURRENCY));
         }
 
         public void reset() {
-            atomicValue.set(0);
+            cell.set(INDEX, 0);
         }
     }
 
@@ -164,6 +423,7 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
         private int priority;
         private double currentWeight;
         private int concurrency;
+        private int concurrencyLimit;
 
         /**
          * 获取该资源的最大权重。
@@ -204,69 +464,187 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
         public int getConcurrency() {
             return concurrency;
         }
+
+        /**
+         * 获取该资源当前的自适应并发度上限，没有开启时返回0。
+         * @return 并发度上限
+         * @see PriorityFailoverBuilder#adaptiveConcurrencyLimit
+         */
+        public int getConcurrencyLimit() {
+            return concurrencyLimit;
+        }
     }
 
-    @SuppressWarnings("unchecked")
     PriorityFailover(PriorityFailoverConfig<T> config) {
+        this(config, null, Collections.emptySet());
+    }
+
+    /**
+     * PriorityFailoverManager增量更新时使用，config是更新以后的完整配置，changed是本次添加、删除或者修改了配置的资源。
+     * 没有任何变化的分组直接复用老的GroupInfo，包括其中的ResInfo（当前权重、并发度、预热等状态）、alias表和轮询计数器；
+     * 有变化的分组才重建，原有资源保持原来的顺序，新的资源打乱以后加在后面。重建的分组中没有变化的资源复用原来的ResInfo，
+     * 更新期间报告给老的failover的调用结果不会丢失；配置变化了的资源使用新的ResInfo，并发度等状态从原来的ResInfo转移过来。
+     * 资源表仍然需要整体复制一次（O(n)，只复制引用），因为选择资源时是无锁读取的，不能原地修改。
+     *
+     * @param old 老的failover，为null时按config全量构建
+     */
+    @SuppressWarnings("unchecked")
+    PriorityFailover(PriorityFailoverConfig<T> config, @Nullable PriorityFailover<T> old, Set<T> changed) {
         Objects.requireNonNull(config.getResources());
         this.config = config;
-        int resCount = config.getResources().size();
-        this.resourcesMap = new HashMap<>(resCount * 3);
         this.concurrentCtrl = config.isConcurrencyControl();
         this.manualConcurrencyControl = config.isManualConcurrencyControl();
+        this.powerOfTwoChoices = config.isPowerOfTwoChoices();
+        this.concurrencyLimited = concurrentCtrl && config.getInitConcurrencyLimit() > 0;
+        this.slowStart = config.getSlowStartDuration() != null;
+        if (config.getWeightFunction() instanceof LatencyWeightFunction) {
+            this.latencyWeightFunction = (LatencyWeightFunction<T>) config.getWeightFunction();
+        } else {
+            this.latencyWeightFunction = null;
+        }
+
+        TreeMap<Integer, GroupInfo<T>> groupMap = new TreeMap<>();
+        // resources of the groups to rebuild, the ones already in the group first
         TreeMap<Integer, ArrayList<ResInfo<T>>> priorityMap = new TreeMap<>();
-        for (Entry<T, ResConfig> en : config.getResources().entrySet()) {
-            T res = en.getKey();
-            ResConfig rc = en.getValue();
-            int priority = rc.getPriority();
-            ResInfo<T> ri = new ResInfo<>(res, priority, rc.getMaxWeight(),
-                    rc.getMinWeight(), rc.getInitWeight(), config.isConcurrencyControl());
-            this.resourcesMap.put(res, ri);
-            priorityMap.compute(priority, (k, v) -> {
-                if (v == null) {
-                    v = new ArrayList<>();
+        TreeMap<Integer, ArrayList<ResInfo<T>>> addedMap = new TreeMap<>();
+        Map<Integer, GroupInfo<T>> rebuiltGroups = new HashMap<>();
+        Collection<T> toCreate;
+        if (old == null) {
+            this.resourcesMap = new HashMap<>(config.getResources().size() * 3);
+            toCreate = config.getResources().keySet();
+        } else {
+            this.resourcesMap = new HashMap<>(old.resourcesMap);
+            Set<Integer> affected = new HashSet<>();
+            for (T res : changed) {
+                ResInfo<T> ri = resourcesMap.remove(res);
+                if (ri != null) {
+                    affected.add(ri.priority);
                 }
-                v.add(ri);
-                return v;
-            });
-        }
-
-        groups = new GroupInfo[priorityMap.size()];
-        int groupIndex = 0;
-        for (Entry<Integer, ArrayList<ResInfo<T>>> en : priorityMap.entrySet()) {
-            final int priority = en.getKey();
-            ArrayList<ResInfo<T>> list = en.getValue();
-            Collections.shuffle(list);
-            final ResInfo<T>[] resources = list.toArray(new ResInfo[list.size()]);
-            double totalMaxWeight = 0;
-            double totalCurrentWeight = 0;
-            double firstMaxWeight = resources[0].maxWeight;
-            boolean maxWeightSame = true;
-            double[] currentWeightCopy = new double[resources.length];
-            for (int i = 0; i < resources.length; i++) {
-                ResInfo<T> ri = resources[i];
-                totalMaxWeight += ri.maxWeight;
-                totalCurrentWeight += ri.currentWeight;
-                currentWeightCopy[i] = ri.currentWeight;
-                if (ri.maxWeight != firstMaxWeight) {
-                    maxWeightSame = false;
+                ResConfig rc = config.getResources().get(res);
+                if (rc != null) {
+                    affected.add(rc.getPriority());
                 }
             }
-            AliasMethod<ResInfo<T>> aliasMethod = null;
-            if (!maxWeightSame && resources.length > config.getAliasMethodThreshold()) {
-                aliasMethod = new AliasMethod<>(stream(resources)
-                        .collect(toMap(ri -> ri, ri -> ri.maxWeight)));
+            for (GroupInfo<T> group : old.groups) {
+                if (!affected.contains(group.priority)) {
+                    groupMap.put(group.priority, group);
+                    continue;
+                }
+                ArrayList<ResInfo<T>> list = new ArrayList<>(group.resources.length);
+                for (ResInfo<T> ri : group.resources) {
+                    if (!changed.contains(ri.resource)) {
+                        // reuse it, so that the results reported to the old failover during the update are kept
+                        list.add(ri);
+                    }
+                }
+                priorityMap.put(group.priority, list);
+                rebuiltGroups.put(group.priority, group);
             }
-            GroupWeightInfo groupWeightInfo = new GroupWeightInfo(maxWeightSame, totalCurrentWeight,
-                    totalMaxWeight, currentWeightCopy, aliasMethod);
-
-            groups[groupIndex++] = new GroupInfo<>(priority, resources,
-                    totalMaxWeight, maxWeightSame, aliasMethod, groupWeightInfo);
+            toCreate = changed;
+        }
+        for (T res : toCreate) {
+            ResConfig rc = config.getResources().get(res);
+            if (rc == null) {
+                // removed
+                continue;
+            }
+            int priority = rc.getPriority();
+            ResInfo<T> oldResInfo = old == null ? null : old.resourcesMap.get(res);
+            ResInfo<T> ri;
+            if (oldResInfo != null) {
+                ri = new ResInfo<>(oldResInfo, priority, rc.getMaxWeight(), rc.getMinWeight(), rc.getInitWeight());
+                priorityMap.computeIfAbsent(priority, k -> new ArrayList<>()).add(ri);
+            } else {
+                ri = new ResInfo<>(res, priority, rc.getMaxWeight(), rc.getMinWeight(), rc.getInitWeight(),
+                        config.isConcurrencyControl(), newConcurrencyLimit(config), config.isMetrics());
+                if (slowStart && old != null) {
+                    ri.startWarmUp();
+                }
+                addedMap.computeIfAbsent(priority, k -> new ArrayList<>()).add(ri);
+            }
+            this.resourcesMap.put(res, ri);
         }
+        addedMap.forEach((priority, added) -> {
+            Collections.shuffle(added);
+            priorityMap.computeIfAbsent(priority, k -> new ArrayList<>()).addAll(added);
+        });
+        priorityMap.forEach((priority, list) -> {
+            if (list.isEmpty()) {
+                return;
+            }
+            ResInfo<T>[] resources = list.toArray(new ResInfo[list.size()]);
+            GroupInfo<T> oldGroup = rebuiltGroups.get(priority);
+            if (oldGroup == null) {
+                groupMap.put(priority, buildGroup(priority, resources, config));
+            } else {
+                // the reused resources can't change their weights until they are moved to the new group
+                synchronized (oldGroup) {
+                    groupMap.put(priority, buildGroup(priority, resources, config));
+                }
+            }
+        });
+        this.groups = groupMap.values().toArray(new GroupInfo[groupMap.size()]);
+        this.lastSelectedPriority = groups.length == 0 ? 0 : groups[0].priority;
 
         checkTask = new PriorityFailoverCheckTask<>(config, this);
     }
 
+    private static <T> GroupInfo<T> buildGroup(int priority, ResInfo<T>[] resources,
+            PriorityFailoverConfig<T> config) {
+        double totalMaxWeight = 0;
+        double totalCurrentWeight = 0;
+        double firstMaxWeight = resources[0].maxWeight;
+        boolean maxWeightSame = true;
+        int notFullCount = 0;
+        for (int i = 0; i < resources.length; i++) {
+            ResInfo<T> ri = resources[i];
+            totalMaxWeight += ri.maxWeight;
+            totalCurrentWeight += ri.currentWeight;
+            if (ri.currentWeight < ri.maxWeight) {
+                notFullCount++;
+            }
+            if (ri.maxWeight != firstMaxWeight) {
+                maxWeightSame = false;
+            }
+        }
+        AliasMethod<ResInfo<T>> aliasMethod = null;
+        if (!maxWeightSame && resources.length > config.getAliasMethodThreshold()) {
+            aliasMethod = new AliasMethod<>(stream(resources)
+                    .collect(toMap(ri -> ri, ri -> ri.maxWeight)));
+        }
+        GroupWeightInfo groupWeightInfo = new GroupWeightInfo(maxWeightSame, totalCurrentWeight,
+                totalMaxWeight, notFullCount, aliasMethod);
+
+        GroupInfo<T> group = new GroupInfo<>(priority, resources, totalMaxWeight, maxWeightSame,
+                aliasMethod, groupWeightInfo, resources.length > config.getFenwickTreeThreshold());
+        Duration aliasRebuildDelay = config.getAliasRebuildDelay();
+        if (aliasRebuildDelay != null && resources.length > config.getAliasMethodThreshold()) {
+            group.asyncAliasTable = new AsyncAliasTable<>(group, config.getCheckExecutor(),
+                    aliasRebuildDelay.toNanos(), config.getAliasMaxStaleness().toNanos());
+        }
+        Duration slowStartDuration = config.getSlowStartDuration();
+        if (slowStartDuration != null) {
+            group.slowStartNanos = slowStartDuration.toNanos();
+            group.slowStartInitRate = config.getSlowStartInitRate();
+        }
+        // publish the group to the resources only after it is fully built
+        for (int i = 0; i < resources.length; i++) {
+            resources[i].indexInGroup = i;
+            resources[i].group = group;
+        }
+        return group;
+    }
+
+    @Nullable
+    private static ConcurrencyLimit newConcurrencyLimit(PriorityFailoverConfig<?> config) {
+        if (config.getInitConcurrencyLimit() <= 0) {
+            return null;
+        }
+        Duration latencyThreshold = config.getConcurrencyLimitLatencyThreshold();
+        return new ConcurrencyLimit(config.getInitConcurrencyLimit(), config.getMinConcurrencyLimit(),
+                config.getMaxConcurrencyLimit(), latencyThreshold == null ? 0 : latencyThreshold.toNanos());
+    }
+
     public static <T> PriorityFailoverBuilder<T> newBuilder() {
         return new PriorityFailoverBuilder<>();
     }
@@ -325,77 +703,305 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
         processWeight(object, true);
     }
 
+    /**
+     * 报告调用成功以及本次调用的延迟。权重回调是{@link LatencyWeightFunction}时，更新这个资源的延迟移动平均值，
+     * 并根据它计算新的权重（即使当前已经是最大权重），其它情况下和{@link #success(Object)}一样。
+     * 平均值的更新不加锁，只有权重需要变化时才持有分组的锁。
+     *
+     * @param object 被调用的资源
+     * @param latencyNanos 本次调用的延迟（纳秒）
+     */
+    public void success(@Nonnull T object, long latencyNanos) {
+        ResInfo<T> resInfo = resourcesMap.get(object);
+        if (resInfo == null) {
+            return;
+        }
+        release(resInfo, true, latencyNanos);
+        ResourceMetrics metrics = resInfo.metrics;
+        if (metrics != null) {
+            metrics.recordSuccess(latencyNanos);
+        }
+        LatencyWeightFunction<T> weightFunction = this.latencyWeightFunction;
+        if (weightFunction == null) {
+            updateWeight(true, resInfo, config);
+            return;
+        }
+        weightFunction.onResult(true, resInfo.resource);
+        double latencyEwma = resInfo.updateLatencyEwma(weightFunction, latencyNanos);
+        double currentWeight = resInfo.currentWeight;
+        if (currentWeight > resInfo.minWeight
+                && currentWeight == weightFunction.latencyLimit(resInfo.maxWeight, resInfo.minWeight, latencyEwma)) {
+            // success never decreases the weight, and it is already at the limit of the latency
+            return;
+        }
+        double newWeight;
+        while (true) {
+            GroupInfo<T> group = resInfo.group;
+            synchronized (group) {
+                if (resInfo.group != group) {
+                    // moved to a group rebuilt by PriorityFailoverManager
+                    continue;
+                }
+                currentWeight = resInfo.currentWeight;
+                newWeight = weightFunction.success(resInfo.maxWeight, resInfo.minWeight, resInfo.priority,
+                        currentWeight, resInfo.resource, latencyEwma);
+                newWeight = Math.min(newWeight, resInfo.maxWeight);
+                newWeight = Math.max(newWeight, resInfo.minWeight);
+                if (newWeight == currentWeight) {
+                    return;
+                }
+                setWeight(resInfo, newWeight);
+            }
+            break;
+        }
+        fireWeightListener(true, resInfo, currentWeight, newWeight, config);
+    }
+
     @Override
     public void fail(@Nonnull T object) {
         processWeight(object, false);
         checkTask.ensureStart();
     }
 
+    /**
+     * 批量报告调用结果，所有权重变化在一次加锁中完成，每个受影响的优先级分组只重建一次。
+     */
+    @Override
+    public void report(@Nonnull Collection<T> successes, @Nonnull Collection<T> failures) {
+        List<ResInfo<T>> successList = toResInfoList(successes, true);
+        List<ResInfo<T>> failList = toResInfoList(failures, false);
+        updateWeight(successList, failList, config);
+        if (!failures.isEmpty()) {
+            checkTask.ensureStart();
+        }
+    }
+
+    private List<ResInfo<T>> toResInfoList(Collection<T> objects, boolean success) {
+        List<ResInfo<T>> list = new ArrayList<>(objects.size());
+        for (T object : objects) {
+            ResInfo<T> resInfo = resourcesMap.get(object);
+            if (resInfo == null) {
+                continue;
+            }
+            release(resInfo, success, ConcurrencyLimit.NO_LATENCY);
+            recordResult(resInfo, success);
+            list.add(resInfo);
+        }
+        return list;
+    }
+
     private void processWeight(@Nonnull T object, boolean success) {
         ResInfo<T> resInfo = resourcesMap.get(object);
         if (resInfo == null) {
             return;
         }
+        release(resInfo, success, ConcurrencyLimit.NO_LATENCY);
+        recordResult(resInfo, success);
+        updateWeight(success, resInfo, config);
+    }
+
+    private static void recordResult(ResInfo<?> resInfo, boolean success) {
+        ResourceMetrics metrics = resInfo.metrics;
+        if (metrics != null) {
+            if (success) {
+                metrics.recordSuccess(ConcurrencyLimit.NO_LATENCY);
+            } else {
+                metrics.recordFailure();
+            }
+        }
+    }
+
+    /**
+     * 一次调用结束，调整自适应并发度上限（需要用到结束前的并发度，所以在减少并发度之前），然后减少并发度。
+     */
+    private void release(ResInfo<T> resInfo, boolean success, long latencyNanos) {
+        ConcurrencyLimit concurrencyLimit = resInfo.concurrencyLimit;
+        if (concurrencyLimit != null) {
+            if (success) {
+                concurrencyLimit.onSuccess(resInfo.concurrency.get(), latencyNanos);
+            } else {
+                concurrencyLimit.onFail();
+            }
+        }
         if (resInfo.concurrency != null && !manualConcurrencyControl) {
             resInfo.concurrency.decr();
         }
-        updateWeight(success, resInfo, config, groups);
     }
 
-    static <T> void updateWeight(boolean success, ResInfo<T> resInfo, PriorityFailoverConfig<T> config,
-            GroupInfo<T>[] groups) {
-        double maxWeight = resInfo.maxWeight;
-        double minWeight = resInfo.minWeight;
+    static <T> void updateWeight(boolean success, ResInfo<T> resInfo, PriorityFailoverConfig<T> config) {
+        config.getWeightFunction().onResult(success, resInfo.resource);
+        if (isWeightBounded(success, resInfo, resInfo.currentWeight)) {
+            return;
+        }
+        double currentWeight;
+        double newWeight;
+        while (true) {
+            GroupInfo<T> group = resInfo.group;
+            synchronized (group) {
+                if (resInfo.group != group) {
+                    // moved to a group rebuilt by PriorityFailoverManager
+                    continue;
+                }
+                currentWeight = resInfo.currentWeight;
+                newWeight = computeWeight(success, resInfo, currentWeight, config);
+                if (newWeight == currentWeight) {
+                    return;
+                }
+                setWeight(resInfo, newWeight);
+            }
+            break;
+        }
+        fireWeightListener(success, resInfo, currentWeight, newWeight, config);
+    }
 
-        double currentWeight = resInfo.currentWeight;
-        if ((success && currentWeight >= maxWeight) || (!success && currentWeight <= minWeight)) {
+    /**
+     * 批量更新权重，先处理成功的资源再处理失败的资源，同一个资源可以出现多次。
+     * 每次权重变化只需要增量更新所在分组，所有监听器在更新完成以后回调。
+     */
+    static <T> void updateWeight(Collection<ResInfo<T>> successes, Collection<ResInfo<T>> failures,
+            PriorityFailoverConfig<T> config) {
+        List<WeightChange<T>> changes = new ArrayList<>(successes.size() + failures.size());
+        for (ResInfo<T> resInfo : successes) {
+            applyWeight(true, resInfo, config, changes);
+        }
+        for (ResInfo<T> resInfo : failures) {
+            applyWeight(false, resInfo, config, changes);
+        }
+        for (WeightChange<T> change : changes) {
+            fireWeightListener(change.success, change.resInfo, change.oldWeight, change.newWeight, config);
+        }
+    }
+
+    private static <T> void applyWeight(boolean success, ResInfo<T> resInfo, PriorityFailoverConfig<T> config,
+            List<WeightChange<T>> changes) {
+        config.getWeightFunction().onResult(success, resInfo.resource);
+        if (isWeightBounded(success, resInfo, resInfo.currentWeight)) {
+            return;
+        }
+        while (true) {
+            GroupInfo<T> group = resInfo.group;
+            synchronized (group) {
+                if (resInfo.group != group) {
+                    // moved to a group rebuilt by PriorityFailoverManager
+                    continue;
+                }
+                double currentWeight = resInfo.currentWeight;
+                double newWeight = computeWeight(success, resInfo, currentWeight, config);
+                if (newWeight != currentWeight) {
+                    setWeight(resInfo, newWeight);
+                    changes.add(new WeightChange<>(success, resInfo, currentWeight, newWeight));
+                }
+            }
             return;
         }
-        int priority = resInfo.priority;
-        T res = resInfo.resource;
+    }
+
+    /**
+     * 修改资源的当前权重，同时增量更新所在分组的GroupWeightInfo，调用方需要持有resInfo.group的锁。
+     */
+    static <T> void setWeight(ResInfo<T> resInfo, double newWeight) {
+        GroupInfo<T> group = resInfo.group;
+        double oldWeight = resInfo.currentWeight;
+        resInfo.currentWeight = newWeight;
+        group.currentWeights.set(resInfo.indexInGroup, doubleToRawLongBits(newWeight));
+        if (oldWeight <= resInfo.minWeight && newWeight > resInfo.minWeight) {
+            if (group.slowStartNanos > 0) {
+                resInfo.startWarmUp();
+            }
+            ResourceMetrics metrics = resInfo.metrics;
+            if (metrics != null) {
+                metrics.recordRecovery();
+            }
+        }
+
+        GroupWeightInfo old = group.groupWeightInfo;
+        int notFullCount = old.notFullCount;
+        if (oldWeight < resInfo.maxWeight) {
+            notFullCount--;
+        }
+        if (newWeight < resInfo.maxWeight) {
+            notFullCount++;
+        }
+        FenwickTree fenwickTree = group.fenwickTree;
+        double totalCurrentWeight;
+        if (notFullCount == 0) {
+            // reset the accumulated floating point error
+            totalCurrentWeight = group.totalMaxWeight;
+            if (fenwickTree != null && old.notFullCount != 0) {
+                double[] weights = new double[group.resources.length];
+                for (int i = 0; i < weights.length; i++) {
+                    weights[i] = group.currentWeight(i);
+                }
+                fenwickTree.reset(weights);
+            }
+        } else {
+            totalCurrentWeight = Math.max(0, old.totalCurrentWeight + newWeight - oldWeight);
+            if (fenwickTree != null) {
+                fenwickTree.add(resInfo.indexInGroup, newWeight - oldWeight);
+            }
+        }
+        group.groupWeightInfo = new GroupWeightInfo(group.maxWeightSame, totalCurrentWeight,
+                group.totalMaxWeight, notFullCount, group.aliasMethod);
+        if (group.asyncAliasTable != null) {
+            group.asyncAliasTable.onWeightChanged();
+        }
+    }
+
+    private static <T> boolean isWeightBounded(boolean success, ResInfo<T> resInfo, double currentWeight) {
+        return (success && currentWeight >= resInfo.maxWeight) || (!success && currentWeight <= resInfo.minWeight);
+    }
+
+    /**
+     * @return 新的权重，不需要变化时返回currentWeight
+     */
+    private static <T> double computeWeight(boolean success, ResInfo<T> resInfo, double currentWeight,
+            PriorityFailoverConfig<T> config) {
+        double maxWeight = resInfo.maxWeight;
+        double minWeight = resInfo.minWeight;
+        if (isWeightBounded(success, resInfo, currentWeight)) {
+            return currentWeight;
+        }
         double newWeight;
         if (success) {
             newWeight = config.getWeightFunction().success(maxWeight,
-                    minWeight, priority, currentWeight, res);
+                    minWeight, resInfo.priority, currentWeight, resInfo.resource);
         } else {
             newWeight = config.getWeightFunction().fail(maxWeight,
-                    minWeight, priority, currentWeight, res);
+                    minWeight, resInfo.priority, currentWeight, resInfo.resource);
         }
         newWeight = Math.min(newWeight, maxWeight);
         newWeight = Math.max(newWeight, minWeight);
-        if (newWeight == currentWeight) {
-            return;
-        }
-        synchronized (config) {
-            resInfo.currentWeight = newWeight;
-            updateGroupHealthy(priority, groups);
-        }
+        return newWeight;
+    }
 
+    private static <T> void fireWeightListener(boolean success, ResInfo<T> resInfo, double oldWeight,
+            double newWeight, PriorityFailoverConfig<T> config) {
+        FailoverEvents.weightChanged(config.getName(), resInfo.resource, oldWeight, newWeight,
+                resInfo.minWeight, resInfo.maxWeight);
         WeightListener<T> listener = config.getWeightListener();
         if (listener != null) {
             if (success) {
-                listener.onSuccess(maxWeight, minWeight, priority, currentWeight, newWeight, res);
+                listener.onSuccess(resInfo.maxWeight, resInfo.minWeight, resInfo.priority,
+                        oldWeight, newWeight, resInfo.resource);
             } else {
-                listener.onFail(maxWeight, minWeight, priority, currentWeight, newWeight, res);
+                listener.onFail(resInfo.maxWeight, resInfo.minWeight, resInfo.priority,
+                        oldWeight, newWeight, resInfo.resource);
             }
         }
     }
 
-    static <T> void updateGroupHealthy(int priority, GroupInfo<T>[] groups) {
-        for (GroupInfo<T> psi : groups) {
-            if (psi.priority == priority) {
-                double sumCurrentWeight = 0.0;
-                ResInfo<T>[] resources = psi.resources;
-                int resCount = resources.length;
-                double[] weightCopy = new double[resCount];
-                for (int i = 0; i < resCount; i++) {
-                    ResInfo<T> ri = resources[i];
-                    weightCopy[i] = ri.currentWeight;
-                    sumCurrentWeight += weightCopy[i];
-                }
-                psi.groupWeightInfo = new GroupWeightInfo(psi.maxWeightSame, sumCurrentWeight,
-                        psi.totalMaxWeight, weightCopy, psi.aliasMethod);
-            }
+    @SuppressWarnings("checkstyle:VisibilityModifier")
+    private static class WeightChange<T> {
+        final boolean success;
+        final ResInfo<T> resInfo;
+        final double oldWeight;
+        final double newWeight;
+
+        WeightChange(boolean success, ResInfo<T> resInfo, double oldWeight, double newWeight) {
+            this.success = success;
+            this.resInfo = resInfo;
+            this.oldWeight = oldWeight;
+            this.newWeight = newWeight;
         }
     }
 
@@ -405,14 +1011,33 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
         if (resInfo == null) {
             return;
         }
-        if (resInfo.concurrency != null && !manualConcurrencyControl) {
-            resInfo.concurrency.decr();
+        release(resInfo, false, ConcurrencyLimit.NO_LATENCY);
+        if (resInfo.metrics != null) {
+            resInfo.metrics.recordDown();
         }
-        double oldWeight = resInfo.currentWeight;
-        synchronized (this.config) {
-            resInfo.currentWeight = resInfo.minWeight;
-            updateGroupHealthy(resInfo.priority, groups);
+        if (resInfo.currentWeight == resInfo.minWeight) {
+            // already down, don't rebuild the group weight info and the alias table for nothing
+            checkTask.ensureStart();
+            return;
         }
+        double oldWeight;
+        while (true) {
+            GroupInfo<T> group = resInfo.group;
+            synchronized (group) {
+                if (resInfo.group != group) {
+                    // moved to a group rebuilt by PriorityFailoverManager
+                    continue;
+                }
+                oldWeight = resInfo.currentWeight;
+                if (oldWeight == resInfo.minWeight) {
+                    return;
+                }
+                setWeight(resInfo, resInfo.minWeight);
+            }
+            break;
+        }
+        FailoverEvents.weightChanged(config.getName(), resInfo.resource, oldWeight, resInfo.minWeight,
+                resInfo.minWeight, resInfo.maxWeight);
         WeightListener<T> listener = config.getWeightListener();
         if (listener != null) {
             listener.onFail(resInfo.maxWeight, resInfo.minWeight,
@@ -432,6 +1057,7 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
     public T getOneAvailableExclude(@Nonnull Collection<T> exclusions) {
         int groupCount = groups.length;
         if (groupCount == 0) {
+            FailoverEvents.selectionMiss(config.getName(), exclusions.size());
             return null;
         }
         ThreadLocalRandom threadLocalRandom = ThreadLocalRandom.current();
@@ -448,90 +1074,221 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
                 if (ri.concurrency != null && !manualConcurrencyControl) {
                     ri.concurrency.incr();
                 }
+                if (ri.metrics != null) {
+                    ri.metrics.recordPick();
+                }
+                if (FailoverEvents.isGroupSwitchEnabled()) {
+                    recordGroupSwitch(ri.priority);
+                }
                 return ri.resource;
             }
             preferGroupIndex = (preferGroupIndex + 1) % groupCount;
         }
+        FailoverEvents.selectionMiss(config.getName(), exclusions.size());
         return null;
     }
 
+    private void recordGroupSwitch(int priority) {
+        int lastPriority = lastSelectedPriority;
+        if (priority != lastPriority) {
+            // racy but harmless, at worst a switch is reported twice
+            lastSelectedPriority = priority;
+            FailoverEvents.groupSwitch(config.getName(), lastPriority, priority);
+        }
+    }
+
     private ResInfo<T> findOneInRegion(ThreadLocalRandom threadLocalRandom, int preferGroupIndex,
             @Nonnull Collection<T> exclusions) {
         GroupInfo<T> groupInfo = groups[preferGroupIndex];
         ResInfo<T>[] resources = groupInfo.resources;
-        int resCount = resources.length;
 
         GroupWeightInfo groupWeightInfo = groupInfo.groupWeightInfo;
         boolean conCtrl = this.concurrentCtrl;
-        if (exclusions.isEmpty() && !conCtrl) {
-            if (groupWeightInfo.roundRobin) {
-                int roundRobinIndex = groupInfo.roundRobinIndex;
-                groupInfo.roundRobinIndex = (roundRobinIndex + 1) % resCount;
-                return resources[roundRobinIndex];
-            } else if (groupWeightInfo.aliasMethod) {
-                return groupInfo.aliasMethod.get();
-            } else {
-                double totalCurrentWeight = groupWeightInfo.totalCurrentWeight;
-                if (totalCurrentWeight <= 0) {
-                    return null;
-                }
-                double random = threadLocalRandom.nextDouble(totalCurrentWeight);
-                double x = 0;
-                double[] weightCopy = groupWeightInfo.currentWeightCopy;
-                for (int i = 0; i < resCount; i++) {
-                    x += weightCopy[i];
-                    if (random < x) {
-                        return resources[i];
-                    }
+        if (!conCtrl || powerOfTwoChoices) {
+            if (groupWeightInfo.totalCurrentWeight <= 0) {
+                return null;
+            }
+            ResInfo<T> ri = pickByWeight(threadLocalRandom, groupInfo, groupWeightInfo, exclusions);
+            if (ri != null && conCtrl) {
+                // power of two choices: pick another one by weight, use the one with less concurrency
+                ResInfo<T> another = pickByWeight(threadLocalRandom, groupInfo, groupWeightInfo, exclusions);
+                if (another != null && another.concurrency.get() < ri.concurrency.get()) {
+                    ri = another;
                 }
             }
+            if (ri != null) {
+                return ri;
+            }
         } else {
-            double sumWeight = 0;
-            double[] weights = new double[resCount];
-            double[] weightCopy = groupWeightInfo.currentWeightCopy;
-            for (int i = 0; i < resCount; i++) {
-                ResInfo<T> ri = resources[i];
-                if (!exclusions.contains(ri.resource)) {
-                    double w = weightCopy[i];
-                    if (conCtrl) {
-                        int c = ri.concurrency.get();
-                        w = w / (1.0 + c);
-                    }
-                    weights[i] = w;
-                    sumWeight += w;
-                } else {
-                    weights[i] = -1;
-                }
+            ResInfo<T> ri = slowPick(threadLocalRandom, groupInfo, exclusions, true);
+            if (ri != null) {
+                return ri;
             }
+        }
 
-            if (sumWeight <= 0) {
-                return null;
+        // maybe precise problem, return first one which is not excluded
+        for (ResInfo<T> ri : resources) {
+            if (ri.currentWeight > 0 && !exclusions.contains(ri.resource) && !ri.reachLimit()) {
+                return ri;
             }
-            double random = threadLocalRandom.nextDouble(sumWeight);
+        }
+
+        return null;
+    }
+
+    /**
+     * 不考虑并发度，按当前权重选择一个不在exclusions中（并且没有达到并发度上限）的资源，没有选中时返回null。
+     * 开启慢启动时，选中预热中的资源以后按预热系数的概率接受，这样选择的概率和 当前权重*预热系数 成正比。
+     */
+    @Nullable
+    private ResInfo<T> pickByWeight(ThreadLocalRandom threadLocalRandom, GroupInfo<T> groupInfo,
+            GroupWeightInfo groupWeightInfo, Collection<T> exclusions) {
+        if (exclusions.isEmpty() && !concurrencyLimited && !slowStart) {
+            return fastPick(threadLocalRandom, groupInfo, groupWeightInfo);
+        }
+        // rejection sampling, the retry path usually only excludes one or two resources
+        for (int i = 0; i < EXCLUDE_RETRY_TIMES; i++) {
+            ResInfo<T> ri = fastPick(threadLocalRandom, groupInfo, groupWeightInfo);
+            if (ri == null) {
+                break;
+            }
+            if (!exclusions.contains(ri.resource) && !ri.reachLimit()
+                    && (!slowStart || threadLocalRandom.nextDouble() < ri.warmUpFactor())) {
+                return ri;
+            }
+        }
+        return slowPick(threadLocalRandom, groupInfo, exclusions, false);
+    }
+
+    /**
+     * 不考虑排除和并发度，按当前权重选择一个资源，因为精度问题没有选中时返回null。
+     */
+    @Nullable
+    private ResInfo<T> fastPick(ThreadLocalRandom threadLocalRandom, GroupInfo<T> groupInfo,
+            GroupWeightInfo groupWeightInfo) {
+        ResInfo<T>[] resources = groupInfo.resources;
+        int resCount = resources.length;
+        if (groupWeightInfo.roundRobin) {
+            return resources[groupInfo.roundRobinCounter.next()];
+        } else if (groupWeightInfo.aliasMethod) {
+            return groupInfo.aliasMethod.get();
+        }
+        AsyncAliasTable<T> asyncAliasTable = groupInfo.asyncAliasTable;
+        if (asyncAliasTable != null) {
+            ResInfo<T> ri = asyncAliasTable.get();
+            // the table may be a little stale, never return a resource which is down now
+            if (ri != null && ri.currentWeight > 0) {
+                return ri;
+            }
+        }
+        double random = threadLocalRandom.nextDouble(groupWeightInfo.totalCurrentWeight);
+        FenwickTree fenwickTree = groupInfo.fenwickTree;
+        if (fenwickTree != null) {
+            int index = fenwickTree.search(random);
+            if (index < resCount && groupInfo.currentWeight(index) > 0) {
+                return resources[index];
+            }
+        } else {
             double x = 0;
             for (int i = 0; i < resCount; i++) {
-                double w = weights[i];
-                if (w < 0) {
-                    continue;
-                } else {
-                    x += w;
-                }
+                x += groupInfo.currentWeight(i);
                 if (random < x) {
                     return resources[i];
                 }
             }
         }
+        return null;
+    }
 
-        // maybe precise problem, return first one which is not excluded
-        for (ResInfo<T> ri : resources) {
-            if (ri.currentWeight > 0 && !exclusions.contains(ri.resource)) {
-                return ri;
+    /**
+     * 扫描整个分组，跳过被排除的和达到并发度上限的资源，预热中的资源权重乘以预热系数，
+     * 开启并发度控制时权重除以(1 + 并发度)，没有选中时返回null。
+     */
+    @Nullable
+    private ResInfo<T> slowPick(ThreadLocalRandom threadLocalRandom, GroupInfo<T> groupInfo,
+            Collection<T> exclusions, boolean conCtrl) {
+        ResInfo<T>[] resources = groupInfo.resources;
+        int resCount = resources.length;
+        int[] excluded = excludedIndexes(groupInfo, exclusions);
+
+        double sumWeight = 0;
+        int next = 0;
+        for (int i = 0; i < resCount; i++) {
+            if (next < excluded.length && excluded[next] == i) {
+                next = skip(excluded, next, i);
+                continue;
+            }
+            sumWeight += weightOf(groupInfo, i, conCtrl);
+        }
+        if (sumWeight <= 0) {
+            return null;
+        }
+        double random = threadLocalRandom.nextDouble(sumWeight);
+        double x = 0;
+        next = 0;
+        for (int i = 0; i < resCount; i++) {
+            if (next < excluded.length && excluded[next] == i) {
+                next = skip(excluded, next, i);
+                continue;
+            }
+            // the weight may have been changed since the first loop, the caller will handle the miss
+            x += weightOf(groupInfo, i, conCtrl);
+            if (random < x) {
+                return resources[i];
             }
         }
-
         return null;
     }
 
+    private static <T> double weightOf(GroupInfo<T> groupInfo, int index, boolean conCtrl) {
+        double w = groupInfo.currentWeight(index);
+        ResInfo<T> ri = groupInfo.resources[index];
+        if (ri.reachLimit()) {
+            return 0;
+        }
+        if (groupInfo.slowStartNanos > 0) {
+            w = w * ri.warmUpFactor();
+        }
+        if (conCtrl) {
+            int c = ri.concurrency.get();
+            w = w / (1.0 + c);
+        }
+        return w;
+    }
+
+    /**
+     * 跳过excluded中所有等于index的元素（exclusions中可能有重复的资源）。
+     */
+    private static int skip(int[] excluded, int next, int index) {
+        while (next < excluded.length && excluded[next] == index) {
+            next++;
+        }
+        return next;
+    }
+
+    /**
+     * 把exclusions转换成本分组内的下标，不属于本分组的资源会被忽略，返回的数组是排好序的。
+     * 这样扫描分组时不需要对每个资源调用一次exclusions.contains。
+     */
+    private int[] excludedIndexes(GroupInfo<T> groupInfo, Collection<T> exclusions) {
+        if (exclusions.isEmpty()) {
+            return EMPTY_INDEXES;
+        }
+        int[] indexes = new int[exclusions.size()];
+        int count = 0;
+        for (T exclusion : exclusions) {
+            ResInfo<T> ri = resourcesMap.get(exclusion);
+            if (ri != null && ri.group == groupInfo) {
+                indexes[count++] = ri.indexInGroup;
+            }
+        }
+        if (count < indexes.length) {
+            indexes = Arrays.copyOf(indexes, count);
+        }
+        Arrays.sort(indexes);
+        return indexes;
+    }
+
     int selectGroup(ThreadLocalRandom random) {
         GroupInfo<T>[] gs = this.groups;
         int groupCount = gs.length;
@@ -587,10 +1344,39 @@ public class PriorityFailover<T> implements SimpleFailover<T>, AutoCloseable {
             if (resInfo.concurrency != null) {
                 status.concurrency = resInfo.concurrency.get();
             }
+            if (resInfo.concurrencyLimit != null) {
+                status.concurrencyLimit = resInfo.concurrencyLimit.get();
+            }
             return status;
         }
     }
 
+    /**
+     * 获取一个资源的调用统计，需要通过{@link PriorityFailoverBuilder#metrics(boolean)}开启。
+     * @param resource 资源
+     * @return 资源的调用统计（实时的），没有开启或者资源不存在时返回null
+     */
+    @Nullable
+    public ResourceMetrics getMetrics(T resource) {
+        ResInfo<T> resInfo = resourcesMap.get(resource);
+        return resInfo == null ? null : resInfo.metrics;
+    }
+
+    /**
+     * 遍历所有资源的调用统计，按优先级从高到低的顺序，没有开启调用统计时什么都不做。
+     * @param visitor 访问者
+     */
+    public void visitMetrics(@Nonnull MetricsVisitor<T> visitor) {
+        for (GroupInfo<T> group : groups) {
+            for (ResInfo<T> ri : group.resources) {
+                ResourceMetrics metrics = ri.metrics;
+                if (metrics != null) {
+                    visitor.visit(ri.resource, metrics);
+                }
+            }
+        }
+    }
+
     /**
      * 获取所有的资源，返回的是一个List副本。
      * @return 所有资源的副本
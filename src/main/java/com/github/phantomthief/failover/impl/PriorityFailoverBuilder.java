@@ -7,12 +7,14 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.github.phantomthief.failover.impl.checker.AsyncChecker;
 import com.github.phantomthief.failover.util.SharedCheckExecutorHolder;
 
 /**
@@ -270,6 +272,45 @@ public class PriorityFailoverBuilder<T> {
         return this;
     }
 
+    /**
+     * 开启并行健康检查，默认每一轮健康检查在checkExecutor的一个线程中逐个检查所有需要检查的资源，
+     * 资源很多并且检查比较慢（比如连接超时）的时候，一轮检查可能需要很长时间。开启以后每一轮最多同时检查parallelism个资源，
+     * 每个检查超过checkTimeout没有返回视为检查失败（并尝试中断检查线程）。
+     *
+     * 超时以后不响应中断的检查仍然占用并发名额，结束之前不会再次检查同一个资源，所以每个failover同时最多占用parallelism个线程。
+     *
+     * 检查在checkWorkerExecutor中执行，如果不指定会用默认的（最多64个线程的共享线程池）。
+     *
+     * @param parallelism 每一轮最多同时检查多少个资源，大于1时生效
+     * @param checkTimeout 每个检查的超时时间
+     * @return this
+     * @see #checkWorkerExecutor(ExecutorService)
+     */
+    public PriorityFailoverBuilder<T> parallelCheck(int parallelism, Duration checkTimeout) {
+        requireNonNull(checkTimeout);
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("bad parallelism:" + parallelism);
+        }
+        if (checkTimeout.isNegative() || checkTimeout.isZero()) {
+            throw new IllegalArgumentException("bad checkTimeout:" + checkTimeout);
+        }
+        config.setCheckParallelism(parallelism);
+        config.setCheckTimeout(checkTimeout);
+        return this;
+    }
+
+    /**
+     * 指定并行健康检查使用的线程池，如果不指定会用默认的。
+     * @param checkWorkerExecutor 线程池
+     * @return this
+     * @see #parallelCheck(int, Duration)
+     */
+    public PriorityFailoverBuilder<T> checkWorkerExecutor(ExecutorService checkWorkerExecutor) {
+        requireNonNull(checkWorkerExecutor);
+        config.setCheckWorkerExecutor(checkWorkerExecutor);
+        return this;
+    }
+
     /**
      * 注册健康检查器回调，检查器传入参数为资源，输出资源是否健康。
      * @param checker 检查器
@@ -281,6 +322,24 @@ public class PriorityFailoverBuilder<T> {
         return this;
     }
 
+    /**
+     * 注册异步的健康检查器，检查期间不占用checkExecutor的线程，同一轮中所有需要检查的资源同时发起检查，
+     * 所有检查结束（或者超时）以后才会开始下一轮。指定以后{@link #checker(Predicate)}不再生效。
+     * @param asyncChecker 异步检查器
+     * @param timeout 每个检查的超时时间，超时视为检查失败
+     * @return this
+     */
+    public PriorityFailoverBuilder<T> asyncChecker(AsyncChecker<T> asyncChecker, Duration timeout) {
+        requireNonNull(asyncChecker);
+        requireNonNull(timeout);
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("bad timeout:" + timeout);
+        }
+        config.setAsyncChecker(asyncChecker);
+        config.setAsyncCheckTimeout(timeout);
+        return this;
+    }
+
     /**
      * 设置构造后立即启动后台健康检查任务。
      * @param startCheckTaskImmediately 是否立即启动健康检查任务
@@ -314,6 +373,80 @@ public class PriorityFailoverBuilder<T> {
         return this;
     }
 
+    /**
+     * 开启并发度控制时使用P2C（power of two choices）算法选择资源：按权重随机选出两个候选，使用其中并发度较小的一个。
+     * 默认的算法每次选择都需要计算分组中所有资源的 权重/(1+并发度)，是O(n)的，P2C是O(1)的，适合资源很多的场景。
+     * 需要同时开启{@link #concurrencyControl(boolean)}，否则不生效。
+     * @param powerOfTwoChoices 是否使用P2C算法
+     * @return this
+     */
+    public PriorityFailoverBuilder<T> powerOfTwoChoices(boolean powerOfTwoChoices) {
+        config.setPowerOfTwoChoices(powerOfTwoChoices);
+        return this;
+    }
+
+    /**
+     * 开启每个资源的自适应并发度上限，需要同时开启{@link #concurrencyControl(boolean)}，否则不生效。默认不开启。
+     *
+     * 上限使用AIMD算法调整：调用成功（并且当前并发度达到上限的一半）时缓慢增加，调用失败、down或者报告的延迟超过
+     * latencyThreshold时按比例减小。选择资源时跳过并发度已经达到上限的资源，如果所有资源都达到上限，
+     * getOneAvailable/getOneAvailableExclude返回null，由调用方快速失败，而不是继续压垮已经过载的资源。
+     *
+     * @param initLimit 初始的并发度上限
+     * @param minLimit 最小的并发度上限，至少是1
+     * @param maxLimit 最大的并发度上限
+     * @param latencyThreshold 报告的延迟（{@link PriorityFailover#success(Object, long)}）超过这个值时视为过载，
+     * null表示不根据延迟调整
+     * @return this
+     */
+    public PriorityFailoverBuilder<T> adaptiveConcurrencyLimit(int initLimit, int minLimit, int maxLimit,
+            @Nullable Duration latencyThreshold) {
+        if (minLimit < 1 || maxLimit < minLimit || initLimit < minLimit || initLimit > maxLimit) {
+            throw new IllegalArgumentException("bad concurrency limit:" + initLimit + "," + minLimit + "," + maxLimit);
+        }
+        config.setInitConcurrencyLimit(initLimit);
+        config.setMinConcurrencyLimit(minLimit);
+        config.setMaxConcurrencyLimit(maxLimit);
+        config.setConcurrencyLimitLatencyThreshold(latencyThreshold);
+        return this;
+    }
+
+    /**
+     * 开启慢启动，资源从down的状态恢复（当前权重从最小权重变大）以后，或者通过PriorityFailoverManager新添加以后，
+     * 选择它的概率在duration时间内从 initRate*当前权重 线性增长到 当前权重，避免冷启动的资源（比如JVM、缓存还没有预热）
+     * 一恢复就接收全部流量，超时以后又被打下去。预热系数在选择资源的时候根据恢复的时间计算，不需要定时任务。
+     * 默认不开启。
+     *
+     * @param duration 预热时长
+     * @param initRate 刚恢复时的权重比例，在(0, 1]之间
+     * @return this
+     */
+    public PriorityFailoverBuilder<T> slowStart(Duration duration, double initRate) {
+        requireNonNull(duration);
+        if (duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException("bad slowStart duration:" + duration);
+        }
+        if (initRate <= 0 || initRate > 1) {
+            throw new IllegalArgumentException("bad slowStart initRate:" + initRate);
+        }
+        config.setSlowStartDuration(duration);
+        config.setSlowStartInitRate(initRate);
+        return this;
+    }
+
+    /**
+     * 开启每个资源的调用统计（选中、成功、失败、down、恢复次数，进行中的调用数，延迟直方图），
+     * 通过{@link PriorityFailover#getMetrics(Object)}或者{@link PriorityFailover#visitMetrics(MetricsVisitor)}读取。
+     * 统计使用LongAdder记录，每次选择和报告结果增加几纳秒的开销。默认不开启。
+     *
+     * @param metrics 是否开启
+     * @return this
+     */
+    public PriorityFailoverBuilder<T> metrics(boolean metrics) {
+        config.setMetrics(metrics);
+        return this;
+    }
+
     /**
      * 启用AliasMethod算法的资源数量阈值，AliasMethod算法是O(1)，但是如果资源总数少，是没有收益的，默认值是10。
      * @param aliasMethodThreshold 启用AliasMethod算法的资源数量阈值
@@ -324,6 +457,41 @@ public class PriorityFailoverBuilder<T> {
         return this;
     }
 
+    /**
+     * 启用树状数组的资源数量阈值，资源数量超过阈值的分组在不健康（有资源的当前权重小于最大权重）时，
+     * 使用树状数组做O(log n)的按权重随机选择，代价是每次权重变化需要O(log n)的更新。
+     * 默认不启用，不健康的分组使用O(n)的线性扫描。
+     * @param fenwickTreeThreshold 启用树状数组的资源数量阈值
+     * @return this
+     */
+    public PriorityFailoverBuilder<T> fenwickTreeThreshold(int fenwickTreeThreshold) {
+        config.setFenwickTreeThreshold(fenwickTreeThreshold);
+        return this;
+    }
+
+    /**
+     * 开启异步重建的AliasMethod，资源数量超过{@link #aliasMethodThreshold(int)}的分组在部分资源不健康时，
+     * 也能保持O(1)的按权重随机选择。
+     *
+     * 权重变化以后不会立即重建，而是等待rebuildDelay后在checkExecutor中根据当前权重重建一次，期间的多次变化合并为一次重建，
+     * 所以选择时使用的权重可能会有短暂的滞后。如果滞后超过了maxStaleness（比如checkExecutor繁忙），暂时退回到精确的选择方式。
+     * 默认不开启。
+     *
+     * @param rebuildDelay 权重变化以后延迟多久重建
+     * @param maxStaleness 允许使用的表最多落后当前权重多久，应该大于rebuildDelay
+     * @return this
+     */
+    public PriorityFailoverBuilder<T> asyncAliasMethod(Duration rebuildDelay, Duration maxStaleness) {
+        requireNonNull(rebuildDelay);
+        requireNonNull(maxStaleness);
+        if (rebuildDelay.isNegative() || maxStaleness.isNegative()) {
+            throw new IllegalArgumentException("rebuildDelay and maxStaleness can not be negative");
+        }
+        config.setAliasRebuildDelay(rebuildDelay);
+        config.setAliasMaxStaleness(maxStaleness);
+        return this;
+    }
+
     /**
      * 代表资源的配置maxWeight/minWeight/priority/initWeight，这是个不可变对象。
      */
@@ -401,6 +569,35 @@ public class PriorityFailoverBuilder<T> {
 
         private int aliasMethodThreshold = 10;
 
+        private int fenwickTreeThreshold = Integer.MAX_VALUE;
+
+        private boolean powerOfTwoChoices;
+
+        private Duration aliasRebuildDelay;
+        private Duration aliasMaxStaleness;
+
+        /**
+         * 0表示不开启自适应并发度上限。
+         */
+        private int initConcurrencyLimit;
+        private int minConcurrencyLimit;
+        private int maxConcurrencyLimit;
+        @Nullable
+        private Duration concurrencyLimitLatencyThreshold;
+
+        @Nullable
+        private Duration slowStartDuration;
+        private double slowStartInitRate;
+
+        @Nullable
+        private AsyncChecker<T> asyncChecker;
+        private Duration asyncCheckTimeout;
+        private boolean metrics;
+
+        private int checkParallelism = 1;
+        private Duration checkTimeout;
+        private ExecutorService checkWorkerExecutor;
+
         @Override
         @SuppressWarnings("unchecked")
         protected PriorityFailoverConfig<T> clone() {
@@ -507,5 +704,139 @@ public class PriorityFailoverBuilder<T> {
         public void setAliasMethodThreshold(int aliasMethodThreshold) {
             this.aliasMethodThreshold = aliasMethodThreshold;
         }
+
+        public int getFenwickTreeThreshold() {
+            return fenwickTreeThreshold;
+        }
+
+        public void setFenwickTreeThreshold(int fenwickTreeThreshold) {
+            this.fenwickTreeThreshold = fenwickTreeThreshold;
+        }
+
+        public boolean isPowerOfTwoChoices() {
+            return powerOfTwoChoices;
+        }
+
+        public void setPowerOfTwoChoices(boolean powerOfTwoChoices) {
+            this.powerOfTwoChoices = powerOfTwoChoices;
+        }
+
+        public Duration getAliasRebuildDelay() {
+            return aliasRebuildDelay;
+        }
+
+        public void setAliasRebuildDelay(Duration aliasRebuildDelay) {
+            this.aliasRebuildDelay = aliasRebuildDelay;
+        }
+
+        public Duration getAliasMaxStaleness() {
+            return aliasMaxStaleness;
+        }
+
+        public void setAliasMaxStaleness(Duration aliasMaxStaleness) {
+            this.aliasMaxStaleness = aliasMaxStaleness;
+        }
+
+        public int getInitConcurrencyLimit() {
+            return initConcurrencyLimit;
+        }
+
+        public void setInitConcurrencyLimit(int initConcurrencyLimit) {
+            this.initConcurrencyLimit = initConcurrencyLimit;
+        }
+
+        public int getMinConcurrencyLimit() {
+            return minConcurrencyLimit;
+        }
+
+        public void setMinConcurrencyLimit(int minConcurrencyLimit) {
+            this.minConcurrencyLimit = minConcurrencyLimit;
+        }
+
+        public int getMaxConcurrencyLimit() {
+            return maxConcurrencyLimit;
+        }
+
+        public void setMaxConcurrencyLimit(int maxConcurrencyLimit) {
+            this.maxConcurrencyLimit = maxConcurrencyLimit;
+        }
+
+        @Nullable
+        public Duration getConcurrencyLimitLatencyThreshold() {
+            return concurrencyLimitLatencyThreshold;
+        }
+
+        public void setConcurrencyLimitLatencyThreshold(@Nullable Duration concurrencyLimitLatencyThreshold) {
+            this.concurrencyLimitLatencyThreshold = concurrencyLimitLatencyThreshold;
+        }
+
+        @Nullable
+        public Duration getSlowStartDuration() {
+            return slowStartDuration;
+        }
+
+        public void setSlowStartDuration(@Nullable Duration slowStartDuration) {
+            this.slowStartDuration = slowStartDuration;
+        }
+
+        public double getSlowStartInitRate() {
+            return slowStartInitRate;
+        }
+
+        public void setSlowStartInitRate(double slowStartInitRate) {
+            this.slowStartInitRate = slowStartInitRate;
+        }
+
+        public int getCheckParallelism() {
+            return checkParallelism;
+        }
+
+        public void setCheckParallelism(int checkParallelism) {
+            this.checkParallelism = checkParallelism;
+        }
+
+        public Duration getCheckTimeout() {
+            return checkTimeout;
+        }
+
+        public void setCheckTimeout(Duration checkTimeout) {
+            this.checkTimeout = checkTimeout;
+        }
+
+        public ExecutorService getCheckWorkerExecutor() {
+            if (checkWorkerExecutor == null) {
+                return SharedCheckExecutorHolder.getWorkerInstance();
+            }
+            return checkWorkerExecutor;
+        }
+
+        public void setCheckWorkerExecutor(ExecutorService checkWorkerExecutor) {
+            this.checkWorkerExecutor = checkWorkerExecutor;
+        }
+
+        @Nullable
+        public AsyncChecker<T> getAsyncChecker() {
+            return asyncChecker;
+        }
+
+        public void setAsyncChecker(@Nullable AsyncChecker<T> asyncChecker) {
+            this.asyncChecker = asyncChecker;
+        }
+
+        public Duration getAsyncCheckTimeout() {
+            return asyncCheckTimeout;
+        }
+
+        public void setAsyncCheckTimeout(Duration asyncCheckTimeout) {
+            this.asyncCheckTimeout = asyncCheckTimeout;
+        }
+
+        public boolean isMetrics() {
+            return metrics;
+        }
+
+        public void setMetrics(boolean metrics) {
+            this.metrics = metrics;
+        }
     }
 }
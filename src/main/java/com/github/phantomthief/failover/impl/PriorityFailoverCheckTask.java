@@ -1,17 +1,28 @@
 package com.github.phantomthief.failover.impl;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.phantomthief.failover.impl.PriorityFailover.GroupInfo;
 import com.github.phantomthief.failover.impl.PriorityFailover.ResInfo;
 import com.github.phantomthief.failover.impl.PriorityFailoverBuilder.PriorityFailoverConfig;
+import com.github.phantomthief.failover.impl.checker.AsyncChecker;
 
 /**
  * @author huangli
@@ -26,10 +37,19 @@ class PriorityFailoverCheckTask<T> implements Runnable {
     private final AtomicReference<ScheduledFuture<?>> futureRef = new AtomicReference<>();
 
     private final HashMap<T, ResInfo<T>> resourcesMap;
-    private final GroupInfo<T>[] groups;
 
     private final AtomicBoolean closed = new AtomicBoolean(false);
 
+    /**
+     * 使用异步检查器时，本轮还没有结束的检查数。
+     */
+    private final AtomicInteger runningAsyncChecks = new AtomicInteger();
+
+    /**
+     * 并行检查时，还在线程池中运行的检查数，包括超时以后被取消、但是还没有结束的检查。
+     */
+    private final AtomicInteger runningParallelChecks = new AtomicInteger();
+
     /**
      * 有时在 ResInfo 持有的资源对象中，会持有 failover 实例，以便调用 failover 的 success/fail 等方法
      * 一旦在注册到 GcUtil 的 CloseRunnable 中持有了 PriorityFailoverCheckTask 的引用，将导致 failover
@@ -61,8 +81,7 @@ class PriorityFailoverCheckTask<T> implements Runnable {
     PriorityFailoverCheckTask(PriorityFailoverConfig<T> config, PriorityFailover<T> failover) {
         this.config = config;
         this.resourcesMap = failover.getResourcesMap();
-        this.groups = failover.getGroups();
-        if (config.getChecker() != null) {
+        if (hasChecker()) {
             if (config.isStartCheckTaskImmediately()) {
                 ensureStart();
             }
@@ -74,7 +93,7 @@ class PriorityFailoverCheckTask<T> implements Runnable {
     public void ensureStart() {
         if (futureRef.get() == null) {
             synchronized (this) {
-                if (futureRef.get() == null && config.getChecker() != null) {
+                if (futureRef.get() == null && hasChecker()) {
                     futureRef.set(config.getCheckExecutor().scheduleWithFixedDelay(
                             this, config.getCheckDuration().toMillis(),
                             config.getCheckDuration().toMillis(), TimeUnit.MILLISECONDS));
@@ -85,34 +104,38 @@ class PriorityFailoverCheckTask<T> implements Runnable {
 
     @Override
     public void run() {
-        // TODO run in multi threads mode?
-
         Thread currentThread = Thread.currentThread();
         String origName = currentThread.getName();
         if (config.getName() != null) {
             currentThread.setName(origName + "-[" + config.getName() + "]");
         }
         try {
+            if (config.getAsyncChecker() != null) {
+                asyncCheck();
+                return;
+            }
+            if (config.getCheckParallelism() > 1) {
+                parallelCheck();
+                return;
+            }
             for (ResInfo<T> r : resourcesMap.values()) {
                 try {
                     if (closed.get()) {
                         return;
                     }
-                    if (config.getWeightFunction().needCheck(r.maxWeight,
-                            r.minWeight, r.priority, r.currentWeight, r.resource)) {
+                    if (needCheck(r)) {
+                        long start = System.nanoTime();
                         boolean ok = config.getChecker().test(r.resource);
+                        FailoverEvents.checkExecuted(config.getName(), r.resource, ok,
+                                System.nanoTime() - start);
                         if (closed.get()) {
                             return;
                         }
-                        PriorityFailover.updateWeight(ok, r, config, groups);
+                        PriorityFailover.updateWeight(ok, r, config);
                     }
                 } catch (Throwable e) {
                     // the test may fail, the user's onSuccess/onFail callback may fail
-                    if (config.getName() == null) {
-                        logger.error("failover check/updateWeight fail: {}", e.toString());
-                    } else {
-                        logger.error("failover({}) check/updateWeight fail: {}", config.getName(), e.toString());
-                    }
+                    logError(e);
                 }
             }
         } finally {
@@ -120,6 +143,239 @@ class PriorityFailoverCheckTask<T> implements Runnable {
         }
     }
 
+    /**
+     * 在checkWorkerExecutor中并行检查，同时最多有checkParallelism个检查在运行，每个检查超时以后视为失败。
+     * 先完成的检查先处理（不按提交顺序），所以一个慢的检查不会挡住后面的提交，一轮检查大约只需要一个超时时间。
+     * 检查结果在当前线程中处理，所以权重更新和回调仍然是单线程的。
+     *
+     * 超时的检查会被取消（中断），但是不响应中断的检查（比如阻塞的connect）会继续占用线程，
+     * 这样的检查仍然计入checkParallelism，并且在它结束之前不会再次检查同一个资源，所以线程数是有上限的；
+     * 所有并发名额都被这样的检查占用时，本轮剩下的资源留到下一轮再检查。
+     */
+    private void parallelCheck() {
+        List<ResInfo<T>> toCheck = new ArrayList<>();
+        for (ResInfo<T> r : resourcesMap.values()) {
+            try {
+                if (needCheck(r)) {
+                    toCheck.add(r);
+                }
+            } catch (Throwable e) {
+                logError(e);
+            }
+        }
+        int parallelism = config.getCheckParallelism();
+        long timeoutNanos = config.getCheckTimeout().toNanos();
+        ExecutorCompletionService<Boolean> completionService =
+                new ExecutorCompletionService<>(config.getCheckWorkerExecutor());
+        Map<Future<Boolean>, RunningCheck<T>> pending = new HashMap<>();
+        Iterator<ResInfo<T>> iterator = toCheck.iterator();
+        try {
+            while (true) {
+                while (iterator.hasNext() && runningParallelChecks.get() < parallelism) {
+                    ResInfo<T> r = iterator.next();
+                    if (!r.tryStartCheck()) {
+                        // the previous check of this resource is still running
+                        continue;
+                    }
+                    runningParallelChecks.incrementAndGet();
+                    CheckCall call = new CheckCall(r);
+                    try {
+                        long start = System.nanoTime();
+                        Future<Boolean> future = completionService.submit(call);
+                        pending.put(future, new RunningCheck<>(r, future, call, start, start + timeoutNanos));
+                    } catch (Throwable e) {
+                        call.release();
+                        logError(e);
+                    }
+                }
+                if (pending.isEmpty()) {
+                    // all done, or all the permits are taken by the checks that ignore the interrupt
+                    return;
+                }
+                long deadline = Long.MAX_VALUE;
+                for (RunningCheck<T> check : pending.values()) {
+                    deadline = Math.min(deadline, check.deadlineNanos);
+                }
+                Future<Boolean> done = completionService.poll(Math.max(0, deadline - System.nanoTime()),
+                        NANOSECONDS);
+                if (done != null) {
+                    // a cancelled check is also put into the completion queue, it's already removed
+                    RunningCheck<T> check = pending.remove(done);
+                    if (check != null) {
+                        try {
+                            onCheckResult(check, done.get());
+                        } catch (ExecutionException e) {
+                            // the test may fail
+                            logError(e.getCause());
+                        }
+                    }
+                }
+                long now = System.nanoTime();
+                Iterator<RunningCheck<T>> pendingIterator = pending.values().iterator();
+                while (pendingIterator.hasNext()) {
+                    RunningCheck<T> check = pendingIterator.next();
+                    if (check.deadlineNanos - now <= 0) {
+                        pendingIterator.remove();
+                        check.call.cancel(check.future);
+                        onCheckResult(check, false);
+                    }
+                }
+                if (closed.get()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+            Thread.currentThread().interrupt();
+        } finally {
+            for (RunningCheck<T> check : pending.values()) {
+                check.call.cancel(check.future);
+            }
+        }
+    }
+
+    private void onCheckResult(RunningCheck<T> check, boolean ok) {
+        FailoverEvents.checkExecuted(config.getName(), check.resInfo.resource, ok,
+                System.nanoTime() - check.startNanos);
+        if (closed.get()) {
+            return;
+        }
+        try {
+            PriorityFailover.updateWeight(ok, check.resInfo, config);
+        } catch (Throwable e) {
+            // the user's onSuccess/onFail callback may fail
+            logError(e);
+        }
+    }
+
+    /**
+     * 在线程池中执行的一次检查。检查结束（或者在开始之前被取消）时释放资源的检查标记和并发名额，
+     * 用claimed保证只释放一次：还没有开始就被取消的检查不会再执行，已经开始的检查由执行线程在结束时释放。
+     */
+    private final class CheckCall implements Callable<Boolean> {
+
+        private final ResInfo<T> resInfo;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        CheckCall(ResInfo<T> resInfo) {
+            this.resInfo = resInfo;
+        }
+
+        @Override
+        public Boolean call() {
+            if (!claimed.compareAndSet(false, true)) {
+                // cancelled before it starts
+                return false;
+            }
+            try {
+                return config.getChecker().test(resInfo.resource);
+            } finally {
+                release();
+            }
+        }
+
+        void cancel(Future<Boolean> future) {
+            future.cancel(true);
+            if (claimed.compareAndSet(false, true)) {
+                release();
+            }
+        }
+
+        void release() {
+            resInfo.endCheck();
+            runningParallelChecks.decrementAndGet();
+        }
+    }
+
+    /**
+     * 同时发起所有需要检查的资源的异步检查，检查结果在完成检查的线程中处理。
+     * 上一轮还有检查没有结束时跳过本轮，避免对同一个资源重复检查。
+     */
+    private void asyncCheck() {
+        if (runningAsyncChecks.get() > 0) {
+            return;
+        }
+        List<ResInfo<T>> toCheck = new ArrayList<>();
+        for (ResInfo<T> r : resourcesMap.values()) {
+            try {
+                if (needCheck(r)) {
+                    toCheck.add(r);
+                }
+            } catch (Throwable e) {
+                logError(e);
+            }
+        }
+        AsyncChecker<T> checker = config.getAsyncChecker();
+        long timeoutNanos = config.getAsyncCheckTimeout().toNanos();
+        for (ResInfo<T> r : toCheck) {
+            if (closed.get()) {
+                return;
+            }
+            // 每个检查单独计数，检查发起失败时也要把计数还回去，否则后面每一轮都会被跳过
+            runningAsyncChecks.incrementAndGet();
+            boolean submitted = false;
+            try {
+                long start = System.nanoTime();
+                AsyncChecks.checkWithTimeout(checker, r.resource, config.getCheckExecutor(), timeoutNanos)
+                        .thenAccept(ok -> {
+                            try {
+                                FailoverEvents.checkExecuted(config.getName(), r.resource, ok,
+                                        System.nanoTime() - start);
+                                if (!closed.get()) {
+                                    PriorityFailover.updateWeight(ok, r, config);
+                                }
+                            } catch (Throwable e) {
+                                // the user's onSuccess/onFail callback may fail
+                                logError(e);
+                            } finally {
+                                runningAsyncChecks.decrementAndGet();
+                            }
+                        });
+                submitted = true;
+            } catch (Throwable e) {
+                logError(e);
+            } finally {
+                if (!submitted) {
+                    runningAsyncChecks.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private boolean hasChecker() {
+        return config.getChecker() != null || config.getAsyncChecker() != null;
+    }
+
+    private boolean needCheck(ResInfo<T> r) {
+        return config.getWeightFunction().needCheck(r.maxWeight, r.minWeight, r.priority, r.currentWeight,
+                r.resource);
+    }
+
+    private void logError(Throwable e) {
+        if (config.getName() == null) {
+            logger.error("failover check/updateWeight fail: {}", e.toString());
+        } else {
+            logger.error("failover({}) check/updateWeight fail: {}", config.getName(), e.toString());
+        }
+    }
+
+    private static class RunningCheck<T> {
+        private final ResInfo<T> resInfo;
+        private final Future<Boolean> future;
+        private final PriorityFailoverCheckTask<T>.CheckCall call;
+        private final long startNanos;
+        private final long deadlineNanos;
+
+        RunningCheck(ResInfo<T> resInfo, Future<Boolean> future, PriorityFailoverCheckTask<T>.CheckCall call,
+                long startNanos, long deadlineNanos) {
+            this.resInfo = resInfo;
+            this.future = future;
+            this.call = call;
+            this.startNanos = startNanos;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
     public synchronized void close() {
         closed.set(true);
         ScheduledFuture<?> scheduledFuture = futureRef.get();
@@ -1,6 +1,7 @@
 package com.github.phantomthief.failover.impl;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -17,6 +18,12 @@ import com.github.phantomthief.failover.impl.PriorityFailoverBuilder.ResConfig;
  * 为了提升性能，PriorityFailover是个"不可变"对象，构造以后，资源列表、每个资源的配置（比如最大权重）就不能变了，
  * 如果需要构建后持续变更（比如资源上下线），并且保留以前资源的当前权重等信息，就需要用到这个类。
  *
+ * 更新是增量的：只有包含被添加、删除或者修改了配置的资源的优先级分组才会重建，其它分组（以及其中资源的当前权重、
+ * 并发度、轮询位置等）原样保留在新的failover中；重建的分组中，没有变化的资源保持原来的顺序和所有状态。
+ * 配置没有变化的资源即使出现在update的参数中，也不算修改。
+ * 每次更新仍然会复制一次配置和资源表，这部分是O(n)的（只复制引用和ResConfig），因为failover选择资源时无锁读取它们，
+ * 不能原地修改；对于上万个资源的规模，这个开销远小于重建所有分组。
+ *
  * 这个类的update/updateAll方法不是线程安全的，使用的时候，请自行加锁。
  *
  * @author huangli
@@ -64,26 +71,34 @@ public class PriorityFailoverManager<T> {
     public UpdateResult<T> update(@Nullable Map<T, ResConfig> resNeedToAddOrUpdate, @Nullable Set<T> resNeedToRemove) {
         UpdateResult<T> result = new UpdateResult<>();
         PriorityFailoverConfig<T> oldConfigCopy = failover.getConfig().clone();
+        Set<T> changed = new HashSet<>();
         if (groupManager != null) {
             groupManager.update(resNeedToAddOrUpdate == null ? null : resNeedToAddOrUpdate.keySet(),
                     resNeedToRemove);
         }
         if (resNeedToAddOrUpdate != null) {
-            processAddAndUpdate(resNeedToAddOrUpdate, oldConfigCopy, result);
+            processAddAndUpdate(resNeedToAddOrUpdate, oldConfigCopy, result, changed);
         }
         if (resNeedToRemove != null) {
             resNeedToRemove.forEach(res -> {
                 ResConfig config = oldConfigCopy.getResources().remove(res);
                 result.getRemovedResources().put(res, config.clone());
+                changed.add(res);
             });
         }
-        failover.close();
-        setFailover(new PriorityFailover<>(oldConfigCopy));
+        replaceFailover(oldConfigCopy, changed, result.getRemovedResources().keySet());
         return result;
     }
 
+    private void replaceFailover(PriorityFailoverConfig<T> newConfig, Set<T> changed, Set<T> removed) {
+        PriorityFailover<T> oldFailover = failover;
+        oldFailover.close();
+        setFailover(new PriorityFailover<>(newConfig, oldFailover, changed));
+        removed.forEach(newConfig.getWeightFunction()::onRemoved);
+    }
+
     private void processAddAndUpdate(@Nonnull Map<T, ResConfig> resNeedToAddOrUpdate,
-            PriorityFailoverConfig<T> oldConfigCopy, UpdateResult<T> result) {
+            PriorityFailoverConfig<T> oldConfigCopy, UpdateResult<T> result, Set<T> changed) {
         HashMap<T, PriorityFailover.ResInfo<T>> currentDataMap = failover.getResourcesMap();
         Map<T, ResConfig> initResConfigCopy = oldConfigCopy.getResources();
         resNeedToAddOrUpdate.forEach((res, newConfig) -> {
@@ -105,6 +120,10 @@ public class PriorityFailoverManager<T> {
             newConfig = new ResConfig(newConfig.getMaxWeight(),
                     newConfig.getMinWeight(), pri, initWeight);
             PriorityFailoverBuilder.checkResConfig(newConfig);
+            if (resInfo == null || resInfo.maxWeight != newConfig.getMaxWeight()
+                    || resInfo.minWeight != newConfig.getMinWeight() || resInfo.priority != pri) {
+                changed.add(res);
+            }
             if (initResConfigCopy.containsKey(res)) {
                 result.getUpdatedResources().put(res, newConfig.clone());
             } else {
@@ -123,11 +142,12 @@ public class PriorityFailoverManager<T> {
     public UpdateResult<T> updateAll(@Nonnull Map<T, ResConfig> newResourceConfigs) {
         UpdateResult<T> result = new UpdateResult<>();
         PriorityFailoverConfig<T> oldConfigCopy = failover.getConfig().clone();
+        Set<T> changed = new HashSet<>();
         if (groupManager != null) {
             groupManager.updateAll(newResourceConfigs.keySet());
         }
 
-        processAddAndUpdate(newResourceConfigs, oldConfigCopy, result);
+        processAddAndUpdate(newResourceConfigs, oldConfigCopy, result, changed);
 
         Iterator<Entry<T, ResConfig>> iterator = oldConfigCopy.getResources().entrySet().iterator();
         while (iterator.hasNext()) {
@@ -135,11 +155,11 @@ public class PriorityFailoverManager<T> {
             if (!newResourceConfigs.containsKey(en.getKey())) {
                 iterator.remove();
                 result.getRemovedResources().put(en.getKey(), en.getValue());
+                changed.add(en.getKey());
             }
         }
 
-        failover.close();
-        setFailover(new PriorityFailover<>(oldConfigCopy));
+        replaceFailover(oldConfigCopy, changed, result.getRemovedResources().keySet());
         return result;
     }
 
@@ -0,0 +1,188 @@
+package com.github.phantomthief.failover.impl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 一个资源的调用统计，由failover在选择资源和报告结果时记录，所有计数器都是{@link LongAdder}，
+ * 并发记录时只有很小的开销（没有竞争时是一次CAS），读取时需要把各个分段加起来，所以读取比记录慢。
+ *
+ * 延迟直方图按2的幂分桶：第i个桶（i大于0）统计延迟在[2^(i-1), 2^i)纳秒之间的调用，第0个桶统计延迟为0的调用，
+ * 最后一个桶统计所有更大的延迟。分位数只能精确到桶，返回的是桶的上界（最多偏大一倍）。
+ *
+ * 计数器是单调递增的，通过两次读取的差值计算一段时间内的速率。进行中的调用数在读取时用选中次数减去结果数计算，
+ * 这样每次选择+报告结果只需要更新3个（报告延迟时4个）计数器。
+ *
+ * @see PriorityFailoverBuilder#metrics(boolean)
+ * @see WeightFailoverBuilder#metrics(boolean)
+ */
+@ThreadSafe
+public final class ResourceMetrics {
+
+    /**
+     * 延迟直方图的桶数，最后一个桶的下界是2^38纳秒（大约4.6分钟）。
+     */
+    public static final int LATENCY_BUCKETS = 40;
+
+    private final LongAdder picks = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder downs = new LongAdder();
+    private final LongAdder recoveries = new LongAdder();
+    private final LongAdder latencySum = new LongAdder();
+    private final LongAdder[] latencyBuckets = new LongAdder[LATENCY_BUCKETS];
+
+    ResourceMetrics() {
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            latencyBuckets[i] = new LongAdder();
+        }
+    }
+
+    void recordPick() {
+        picks.increment();
+    }
+
+    /**
+     * @param latencyNanos 调用的延迟，小于0表示没有报告延迟
+     */
+    void recordSuccess(long latencyNanos) {
+        successes.increment();
+        if (latencyNanos >= 0) {
+            latencyBuckets[bucketOf(latencyNanos)].increment();
+            latencySum.add(latencyNanos);
+        }
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    void recordDown() {
+        downs.increment();
+    }
+
+    void recordRecovery() {
+        recoveries.increment();
+    }
+
+    static int bucketOf(long latencyNanos) {
+        return Math.min(Long.SIZE - Long.numberOfLeadingZeros(latencyNanos), LATENCY_BUCKETS - 1);
+    }
+
+    /**
+     * @param bucket 桶的下标
+     * @return 这个桶的上界（不包含），最后一个桶返回{@link Long#MAX_VALUE}
+     */
+    public static long bucketUpperBoundNanos(int bucket) {
+        return bucket >= LATENCY_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * @return 资源被选中（getOneAvailable/getOneAvailableExclude返回）的次数
+     */
+    public long getPicks() {
+        return picks.sum();
+    }
+
+    /**
+     * @return 报告成功的次数
+     */
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    /**
+     * @return 报告失败的次数，不包括down
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return 调用down的次数
+     */
+    public long getDowns() {
+        return downs.sum();
+    }
+
+    /**
+     * @return 权重从最小权重恢复的次数（健康检查成功或者调用成功）
+     */
+    public long getRecoveries() {
+        return recoveries.sum();
+    }
+
+    /**
+     * 选中次数减去报告结果（成功、失败、down）的次数，调用方选中资源以后没有报告结果的话会一直累积，
+     * 不经过选择直接报告结果的话可能会偏小，不会小于0。
+     * @return 进行中的调用数
+     */
+    public long getInFlight() {
+        // read the results first, so a concurrent pick and report never makes it negative
+        long results = successes.sum() + failures.sum() + downs.sum();
+        return Math.max(0, picks.sum() - results);
+    }
+
+    /**
+     * @return 报告了延迟的调用数
+     */
+    public long getLatencyCount() {
+        long count = 0;
+        for (LongAdder bucket : latencyBuckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return 所有报告的延迟之和（纳秒）
+     */
+    public long getLatencySumNanos() {
+        return latencySum.sum();
+    }
+
+    /**
+     * @param bucket 桶的下标，[0, {@link #LATENCY_BUCKETS})
+     * @return 这个桶的调用数
+     */
+    public long getLatencyBucketCount(int bucket) {
+        return latencyBuckets[bucket].sum();
+    }
+
+    /**
+     * 遍历两次直方图（先求总数，再找分位数所在的桶），不分配内存；计数在两次遍历之间增加的话，
+     * 结果可能略微偏小，对于按2的幂分桶的精度可以忽略。读取需要汇总每个桶的{@link LongAdder}，
+     * 适合在上报统计的时候调用，不适合放在每次请求的路径上。
+     *
+     * @param quantile 分位数，(0, 1]，比如0.99
+     * @return 延迟分位数所在桶的上界（纳秒），没有报告过延迟时返回0
+     */
+    public long getLatencyPercentileNanos(double quantile) {
+        if (quantile <= 0 || quantile > 1) {
+            throw new IllegalArgumentException("bad quantile:" + quantile);
+        }
+        long total = getLatencyCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            // the counts only grow, so the rank is always reached
+            seen += latencyBuckets[i].sum();
+            if (seen >= rank) {
+                return bucketUpperBoundNanos(i);
+            }
+        }
+        return bucketUpperBoundNanos(LATENCY_BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceMetrics{picks=" + getPicks() + ", successes=" + getSuccesses() + ", failures="
+                + getFailures() + ", downs=" + getDowns() + ", recoveries=" + getRecoveries() + ", inFlight="
+                + getInFlight() + ", latencyCount=" + getLatencyCount() + ", latencySumNanos="
+                + getLatencySumNanos() + "}";
+    }
+}
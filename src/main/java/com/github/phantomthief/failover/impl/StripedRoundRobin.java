@@ -0,0 +1,94 @@
+package com.github.phantomthief.failover.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 线程安全的轮询计数器，用于PriorityFailover中所有资源都健康并且权重相同的分组。
+ *
+ * 一个共享的计数器在高并发下会在各个CPU之间来回传递缓存行，所以这里按线程分成多个条带（stripe），
+ * 每个条带是一个独立的计数器，之间用填充隔开，避免伪共享。每个条带的起始位置错开，各自完整的轮询所有资源，
+ * 所以整体的分布是均匀的：任何时刻每个资源被选中次数的差异不超过条带数。
+ *
+ * 条带和{@link java.util.concurrent.atomic.LongAdder}一样是按需分配的：开始只有一个条带，
+ * 只有CAS失败（说明有竞争）时才加倍，直到maxStripes，所以没有竞争的分组只占用一个条带的内存。
+ * 加倍时只复制条带的引用，已有条带的计数不会丢失。
+ */
+@ThreadSafe
+final class StripedRoundRobin {
+
+    /**
+     * 每个条带占用的long个数，计数器放在中间，两边各有至少64字节的填充。
+     */
+    private static final int PADDING = 16;
+    private static final int VALUE_INDEX = PADDING / 2;
+
+    private static final int MAX_STRIPES = 64;
+
+    private final int size;
+    private final int maxStripes;
+
+    /**
+     * 长度总是2的幂，只会变长。
+     */
+    private volatile AtomicLongArray[] stripes;
+
+    StripedRoundRobin(int size) {
+        this(size, Math.min(MAX_STRIPES, Integer.highestOneBit(
+                Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1));
+    }
+
+    /**
+     * @param maxStripes 最大条带数，必须是2的幂
+     */
+    StripedRoundRobin(int size, int maxStripes) {
+        if (Integer.bitCount(maxStripes) != 1) {
+            throw new IllegalArgumentException("maxStripes must be power of 2:" + maxStripes);
+        }
+        this.size = size;
+        this.maxStripes = maxStripes;
+        this.stripes = new AtomicLongArray[] {newStripe(0)};
+    }
+
+    private static AtomicLongArray newStripe(long start) {
+        AtomicLongArray stripe = new AtomicLongArray(PADDING);
+        stripe.set(VALUE_INDEX, start);
+        return stripe;
+    }
+
+    /**
+     * @return 下一个资源的下标，在[0, size)之间
+     */
+    int next() {
+        AtomicLongArray[] current = stripes;
+        AtomicLongArray stripe = current[(int) Thread.currentThread().getId() & (current.length - 1)];
+        long value = stripe.get(VALUE_INDEX);
+        if (!stripe.compareAndSet(VALUE_INDEX, value, value + 1)) {
+            if (current.length < maxStripes) {
+                grow(current);
+            }
+            value = stripe.getAndIncrement(VALUE_INDEX);
+        }
+        return (int) (value % size);
+    }
+
+    private synchronized void grow(AtomicLongArray[] current) {
+        if (stripes != current) {
+            // another thread has already grown it
+            return;
+        }
+        int length = current.length << 1;
+        AtomicLongArray[] grown = Arrays.copyOf(current, length);
+        for (int i = current.length; i < length; i++) {
+            // stagger the start positions so that threads don't pick the same resource at the same time
+            grown[i] = newStripe((long) i * size / length);
+        }
+        stripes = grown;
+    }
+
+    int stripes() {
+        return stripes.length;
+    }
+}
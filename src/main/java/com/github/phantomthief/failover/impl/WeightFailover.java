@@ -1,21 +1,19 @@
 package com.github.phantomthief.failover.impl;
 
-import static com.github.phantomthief.tuple.Tuple.tuple;
 import static java.lang.Integer.MAX_VALUE;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.util.Collections.emptySet;
 import static java.util.Collections.unmodifiableList;
-import static java.util.stream.Collectors.toSet;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -23,18 +21,22 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.IntUnaryOperator;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 
 import com.github.phantomthief.failover.Failover;
-import com.github.phantomthief.tuple.TwoTuple;
 import com.github.phantomthief.util.MoreSuppliers.CloseableSupplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 
 /**
@@ -54,11 +56,36 @@ public class WeightFailover<T> implements Failover<T>, Closeable {
 
     private static final Logger logger = getLogger(WeightFailover.class);
 
+    /**
+     * 有排除条件（exclusions或者filter）时，按权重随机命中被排除资源后的重试次数，超过以后退化为线性扫描。
+     */
+    private static final int SELECT_RETRY_TIMES = 3;
+
+    /**
+     * 只有权重在正数范围内增减（可用资源列表没有变化）时，{@link #selectSnapshot}最多这么久重建一次，
+     * 恢复期间每次success都会改变权重，不限制的话每次选择都要重建快照。
+     */
+    private static final long SNAPSHOT_MAX_STALENESS_NANOS = MILLISECONDS.toNanos(1);
+
+    /**
+     * 分区过滤模式下最多缓存多少个分区key的可用列表和选择快照，超过以后淘汰最久没有使用的。
+     */
+    static final int MAX_CACHED_FILTER_KEYS = 1024;
+
+    /**
+     * 资源的当前权重发生了变化，需要递增{@link #weightVersion}。
+     */
+    private static final int WEIGHT_CHANGED = 1;
+
+    /**
+     * 可用资源列表发生了变化，需要递增{@link #allAvailableVersion}。
+     */
+    private static final int AVAILABLE_CHANGED = 2;
+
     private final IntUnaryOperator failReduceWeight;
     private final IntUnaryOperator successIncreaseWeight;
 
-    private final ConcurrentMap<T, Integer> initWeightMap;
-    private final ConcurrentMap<T, Integer> currentWeightMap;
+    private final WeightTable<T> weightTable;
     @SuppressWarnings("checkstyle:VisibilityModifier")
     final CloseableSupplier<ScheduledFuture<?>> recoveryFuture;
     private final Consumer<T> onMinWeight;
@@ -75,11 +102,40 @@ public class WeightFailover<T> implements Failover<T>, Closeable {
     @Nullable
     private final Predicate<T> filter;
 
+    /**
+     * 分区过滤模式下资源到分区key的映射，{@code null}表示没有开启分区过滤。
+     * @see WeightFailoverBuilder#keyedFilter(Function, Supplier)
+     */
+    @Nullable
+    private final Function<? super T, ?> filterKey;
+
+    /**
+     * 分区过滤模式下从上下文获取当前请求的分区key，返回{@code null}表示本次调用不过滤。
+     */
+    @Nullable
+    private final Supplier<?> contextFilterKey;
+
+    @Nullable
+    private final String name;
+
     @SuppressWarnings("checkstyle:VisibilityModifier")
     AtomicBoolean closed = new AtomicBoolean(false);
 
+    /**
+     * 只在可用资源列表（当前权重大于0的资源）发生变化时递增，权重在正数范围内的增减不会改变它。
+     */
     private AtomicInteger allAvailableVersion = new AtomicInteger();
 
+    /**
+     * 每个资源的调用统计，{@code null}表示没有开启。
+     * @see WeightFailoverBuilder#metrics(boolean)
+     */
+    @Nullable
+    private final ConcurrentMap<T, ResourceMetrics> metrics;
+
+    private final LongAdder availableCacheHitCount = new LongAdder();
+    private final LongAdder availableCacheRebuildCount = new LongAdder();
+
     @SuppressWarnings({"checkstyle:VisibilityModifier"})
     private static class AllAvailable<T> {
         int version;
@@ -88,23 +144,109 @@ public class WeightFailover<T> implements Failover<T>, Closeable {
 
     private volatile AllAvailable<T> allAvailable;
 
+    /**
+     * 分区过滤模式下每个分区key的可用资源列表，和{@link #allAvailable}一样用{@link #allAvailableVersion}判断是否过期，
+     * 最多缓存{@link #MAX_CACHED_FILTER_KEYS}个分区key。
+     */
+    private final Cache<Object, AllAvailable<T>> keyedAvailable = newFilterKeyCache();
+
+    /**
+     * 任何一个资源的当前权重发生变化时都会递增，用于判断{@link #selectSnapshot}是否过期。
+     * 注意{@link #allAvailableVersion}只在可用资源列表变化时递增，单纯的权重增减是不会改变它的。
+     */
+    private final AtomicInteger weightVersion = new AtomicInteger();
+
+    /**
+     * 当前权重的不可变快照，只包含权重大于0的资源，getOneAvailable/getOneAvailableExclude在上面二分查找。
+     * 可用资源列表变化（{@link #allAvailableVersion}变化）以后立即重建；只有权重增减时，
+     * 最多每{@link #SNAPSHOT_MAX_STALENESS_NANOS}重建一次，期间按稍旧的权重选择。
+     */
+    private volatile SelectSnapshot selectSnapshot;
+
+    /**
+     * 分区过滤模式下每个分区key的选择快照，只包含这个分区的资源，所以选择时不需要再做过滤，
+     * 最多缓存{@link #MAX_CACHED_FILTER_KEYS}个分区key。
+     */
+    private final Cache<Object, SelectSnapshot> keyedSelectSnapshot = newFilterKeyCache();
+
+    @SuppressWarnings({"checkstyle:VisibilityModifier"})
+    private static final class SelectSnapshot {
+        final int version;
+        final int availableVersion;
+        final long buildNanos;
+        final Object[] resources;
+        final int[] weights;
+        /**
+         * prefixSum[i] = weights[0] + ... + weights[i]
+         */
+        final int[] prefixSum;
+        final int totalWeight;
+
+        SelectSnapshot(int version, int availableVersion, Object[] resources, int[] weights, int count) {
+            this.version = version;
+            this.availableVersion = availableVersion;
+            this.buildNanos = System.nanoTime();
+            this.resources = count == resources.length ? resources : Arrays.copyOf(resources, count);
+            this.weights = count == weights.length ? weights : Arrays.copyOf(weights, count);
+            this.prefixSum = new int[count];
+            int sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += this.weights[i];
+                prefixSum[i] = sum;
+            }
+            this.totalWeight = sum;
+        }
+
+        /**
+         * 返回第一个prefixSum[i] > value的下标，value应该在[0, totalWeight)之间。
+         */
+        int indexOf(int value) {
+            int low = 0;
+            int high = prefixSum.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (prefixSum[mid] > value) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+
     WeightFailover(WeightFailoverBuilder<T> builder) {
         this.minWeight = builder.minWeight;
         this.failReduceWeight = builder.failReduceWeight;
         this.successIncreaseWeight = builder.successIncreaseWeight;
-        this.initWeightMap = new ConcurrentHashMap<>(builder.initWeightMap);
-        this.currentWeightMap = new ConcurrentHashMap<>(builder.initWeightMap);
+        this.weightTable = new WeightTable<>(builder.initWeightMap);
         this.onMinWeight = builder.onMinWeight;
         this.weightOnMissingNode = builder.weightOnMissingNode;
         this.filter = builder.filter;
+        this.filterKey = builder.filterKey;
+        this.contextFilterKey = builder.contextFilterKey;
+        this.name = builder.name;
         this.allAvailable = new AllAvailable<>();
         this.allAvailable.allAvailable = ImmutableList.copyOf(builder.initWeightMap.keySet());
         this.allAvailable.version = allAvailableVersion.get();
+        this.selectSnapshot = buildSelectSnapshot(weightVersion.get(), allAvailableVersion.get(), null);
+        if (builder.metrics) {
+            this.metrics = new ConcurrentHashMap<>();
+            builder.initWeightMap.keySet().forEach(res -> metrics.put(res, new ResourceMetrics()));
+        } else {
+            this.metrics = null;
+        }
         WeightFailoverCheckTask t = new WeightFailoverCheckTask<>(this, builder, closed,
-                initWeightMap, currentWeightMap, allAvailableVersion);
+                weightTable, allAvailableVersion, weightVersion, metrics);
         this.recoveryFuture = t.lazyFuture();
     }
 
+    private static <V> Cache<Object, V> newFilterKeyCache() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(MAX_CACHED_FILTER_KEYS)
+                .build();
+    }
+
     /**
      * better use {@link #newGenericBuilder()} for type safe
      */
@@ -146,39 +288,90 @@ public class WeightFailover<T> implements Failover<T>, Closeable {
 
     @Override
     public List<T> getAll() {
-        return new ArrayList<>(initWeightMap.keySet());
+        return weightTable.resources();
+    }
+
+    /**
+     * 查找资源的下标，如果资源不存在并且开启了autoAddOnMissing，会把资源加进来。
+     * @return 资源的下标，如果不存在返回-1
+     */
+    private int indexOf(T object) {
+        int index = weightTable.indexOf(object);
+        if (index < 0 && weightOnMissingNode != null) {
+            index = weightTable.addIfAbsent(object, weightOnMissingNode);
+            allAvailableVersion.incrementAndGet();
+            weightVersion.incrementAndGet();
+        }
+        return index;
     }
 
     @Override
     public void fail(T object) {
+        onWeightChanged(doFail(object));
+    }
+
+    /**
+     * @return 权重变化的标记，见{@link #WEIGHT_CHANGED}和{@link #AVAILABLE_CHANGED}
+     */
+    private int doFail(T object) {
         if (object == null) {
             logger.warn("invalid fail call, null object found.");
-            return;
+            return 0;
         }
-        currentWeightMap.compute(object, (k, oldValue) -> {
-            if (oldValue == null) {
-                if (weightOnMissingNode == null) {
-                    logger.warn("invalid fail obj:{}, it's not in original list.", object);
-                    return null;
-                } else {
-                    oldValue = weightOnMissingNode;
-                    initWeightMap.putIfAbsent(object, weightOnMissingNode);
-                }
-            }
-            int initWeight = initWeightMap.get(k);
-            int result = max(minWeight, oldValue - failReduceWeight.applyAsInt(initWeight));
-            if (onMinWeight != null) {
-                if (result == minWeight && result != oldValue) {
-                    onMinWeight.accept(object);
-                }
-            }
-            if (result == 0) {
-                logger.warn("found down object:{}", k);
-                recoveryFuture.get();
+        int index = indexOf(object);
+        if (index < 0) {
+            logger.warn("invalid fail obj:{}, it's not in original list.", object);
+            return 0;
+        }
+        ResourceMetrics resourceMetrics = metricsOf(object);
+        if (resourceMetrics != null) {
+            resourceMetrics.recordFailure();
+        }
+        int initWeight = weightTable.initWeight(index);
+        int oldValue;
+        int result;
+        do {
+            oldValue = weightTable.currentWeight(index);
+            result = max(minWeight, oldValue - failReduceWeight.applyAsInt(initWeight));
+        } while (result != oldValue && !weightTable.compareAndSet(index, oldValue, result));
+        FailoverEvents.weightChanged(name, object, oldValue, result, minWeight, initWeight);
+        if (onMinWeight != null) {
+            if (result == minWeight && result != oldValue) {
+                onMinWeight.accept(object);
             }
-            return result;
-        });
-        allAvailableVersion.incrementAndGet();
+        }
+        if (result == 0) {
+            logger.warn("found down object:{}", object);
+            recoveryFuture.get();
+        }
+        if (result == oldValue) {
+            return 0;
+        }
+        return oldValue > 0 && result <= 0 ? WEIGHT_CHANGED | AVAILABLE_CHANGED : WEIGHT_CHANGED;
+    }
+
+    private void onWeightChanged(int changed) {
+        if ((changed & AVAILABLE_CHANGED) != 0) {
+            allAvailableVersion.incrementAndGet();
+        }
+        if ((changed & WEIGHT_CHANGED) != 0) {
+            weightVersion.incrementAndGet();
+        }
+    }
+
+    /**
+     * 批量更新权重，整批只递增一次版本号，后续的读取也只需要重建一次快照。
+     */
+    @Override
+    public void report(Collection<T> successes, Collection<T> failures) {
+        int changed = 0;
+        for (T object : successes) {
+            changed |= doSuccess(object, -1);
+        }
+        for (T object : failures) {
+            changed |= doFail(object);
+        }
+        onWeightChanged(changed);
     }
 
     @Override
@@ -187,61 +380,156 @@ public class WeightFailover<T> implements Failover<T>, Closeable {
             logger.warn("invalid fail call, null object found.");
             return;
         }
-        currentWeightMap.compute(object, (k, oldValue) -> {
-            if (oldValue == null) {
-                if (weightOnMissingNode == null) {
-                    logger.warn("invalid fail obj:{}, it's not in original list.", object);
-                    return null;
-                } else {
-                    oldValue = weightOnMissingNode;
-                    initWeightMap.putIfAbsent(object, weightOnMissingNode);
-                }
-            }
-            int result = minWeight;
-            if (onMinWeight != null) {
-                if (result != oldValue) {
-                    onMinWeight.accept(object);
-                }
+        int index = indexOf(object);
+        if (index < 0) {
+            logger.warn("invalid fail obj:{}, it's not in original list.", object);
+            return;
+        }
+        ResourceMetrics resourceMetrics = metricsOf(object);
+        if (resourceMetrics != null) {
+            resourceMetrics.recordDown();
+        }
+        int result = minWeight;
+        int oldValue;
+        do {
+            oldValue = weightTable.currentWeight(index);
+        } while (result != oldValue && !weightTable.compareAndSet(index, oldValue, result));
+        FailoverEvents.weightChanged(name, object, oldValue, result, minWeight, weightTable.initWeight(index));
+        if (onMinWeight != null) {
+            if (result != oldValue) {
+                onMinWeight.accept(object);
             }
-            if (result == 0) {
-                logger.warn("found down object:{}", k);
-                recoveryFuture.get();
+        }
+        if (result == 0) {
+            logger.warn("found down object:{}", object);
+            recoveryFuture.get();
+        }
+        if (result != oldValue) {
+            if (oldValue > 0 && result <= 0) {
+                allAvailableVersion.incrementAndGet();
             }
-            return result;
-        });
-        allAvailableVersion.incrementAndGet();
+            weightVersion.incrementAndGet();
+        }
     }
 
     @Override
     public List<T> getAvailable() {
+        Object key = currentFilterKey();
+        if (key != null) {
+            return getKeyedAvailable(key);
+        }
         // refresh if need
         int version = allAvailableVersion.get();
         boolean refreshed = false;
         if (allAvailable.version != version) {
             refreshed = true;
+            availableCacheRebuildCount.increment();
             AllAvailable tmp = new AllAvailable<>();
             tmp.version = version;
-            tmp.allAvailable = doGetAvailable();
+            tmp.allAvailable = doGetAvailable(null);
             allAvailable = tmp;
         }
 
 
         if (filter == null) {
+            if (!refreshed) {
+                availableCacheHitCount.increment();
+            }
             return allAvailable.allAvailable;
         } else {
             if (refreshed) {
                 return allAvailable.allAvailable;
             } else {
-                return doGetAvailable();
+                availableCacheRebuildCount.increment();
+                return doGetAvailable(null);
             }
         }
     }
 
-    private List<T> doGetAvailable() {
-        List<T> result = new ArrayList<>(currentWeightMap.size());
-        for (Entry<T, Integer> entry : currentWeightMap.entrySet()) {
-            T item = entry.getKey();
-            if (entry.getValue() > 0 && (filter == null || filter.test(item))) {
+    private List<T> getKeyedAvailable(Object key) {
+        int version = allAvailableVersion.get();
+        AllAvailable<T> cached = keyedAvailable.getIfPresent(key);
+        if (cached != null && cached.version == version) {
+            availableCacheHitCount.increment();
+            return cached.allAvailable;
+        }
+        availableCacheRebuildCount.increment();
+        AllAvailable<T> tmp = new AllAvailable<>();
+        tmp.version = version;
+        tmp.allAvailable = doGetAvailable(key);
+        keyedAvailable.put(key, tmp);
+        return tmp.allAvailable;
+    }
+
+    @Nullable
+    private Object currentFilterKey() {
+        return contextFilterKey == null ? null : contextFilterKey.get();
+    }
+
+    private boolean matchKey(T obj, @Nullable Object key) {
+        return key == null || key.equals(filterKey.apply(obj));
+    }
+
+    /**
+     * 获取{@link #getAvailable()}缓存的命中统计，用来观察可用列表缓存的效果。
+     * @return 统计信息的快照
+     */
+    public AvailableCacheStats getAvailableCacheStats() {
+        return new AvailableCacheStats(availableCacheHitCount.sum(), availableCacheRebuildCount.sum());
+    }
+
+    /**
+     * {@link #getAvailable()}缓存的命中统计。
+     * @see #getAvailableCacheStats()
+     */
+    public static class AvailableCacheStats {
+        private final long hitCount;
+        private final long rebuildCount;
+
+        AvailableCacheStats(long hitCount, long rebuildCount) {
+            this.hitCount = hitCount;
+            this.rebuildCount = rebuildCount;
+        }
+
+        /**
+         * 直接返回缓存列表的次数。
+         * @return 命中次数
+         */
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        /**
+         * 需要扫描全部资源重新构建可用列表的次数，配置了filter时每次调用都需要重新构建，
+         * 配置了keyedFilter时每个分区key各自缓存。
+         * @return 重建次数
+         */
+        public long getRebuildCount() {
+            return rebuildCount;
+        }
+
+        /**
+         * 命中率，没有调用过时返回0。
+         * @return 命中率
+         */
+        public double getHitRate() {
+            long total = hitCount + rebuildCount;
+            return total == 0 ? 0 : (double) hitCount / total;
+        }
+
+        @Override
+        public String toString() {
+            return "AvailableCacheStats{hitCount=" + hitCount + ", rebuildCount=" + rebuildCount + "}";
+        }
+    }
+
+    private List<T> doGetAvailable(@Nullable Object key) {
+        int size = weightTable.size();
+        List<T> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            T item = weightTable.resource(i);
+            if (weightTable.currentWeight(i) > 0 && (filter == null || filter.test(item))
+                    && matchKey(item, key)) {
                 result.add(item);
             }
         }
@@ -250,9 +538,7 @@ public class WeightFailover<T> implements Failover<T>, Closeable {
 
     @Override
     public T getOneAvailable() {
-        // TODO better using a snapshot current Weight<T> or a new stateful Weight<T>
-        List<T> available = getAvailable(1);
-        return available.isEmpty() ? null : available.get(0);
+        return getOneAvailableExclude(emptySet());
     }
 
     @Override
@@ -263,8 +549,35 @@ public class WeightFailover<T> implements Failover<T>, Closeable {
     @Nullable
     @Override
     public T getOneAvailableExclude(Collection<T> exclusions) {
-        List<T> result = getAvailable(1, exclusions);
-        return result.isEmpty() ? null : result.get(0);
+        T one = selectOne(exclusions);
+        if (one == null) {
+            FailoverEvents.selectionMiss(name, exclusions.size());
+        }
+        return recordPick(one);
+    }
+
+    @Nullable
+    T recordPick(@Nullable T object) {
+        if (object != null && metrics != null) {
+            ResourceMetrics resourceMetrics = metricsOf(object);
+            if (resourceMetrics != null) {
+                resourceMetrics.recordPick();
+            }
+        }
+        return object;
+    }
+
+    @Nullable
+    private ResourceMetrics metricsOf(T object) {
+        if (metrics == null) {
+            return null;
+        }
+        ResourceMetrics resourceMetrics = metrics.get(object);
+        if (resourceMetrics == null && weightTable.indexOf(object) >= 0) {
+            // added by autoAddOnMissing
+            resourceMetrics = metrics.computeIfAbsent(object, k -> new ResourceMetrics());
+        }
+        return resourceMetrics;
     }
 
     @Override
@@ -272,43 +585,128 @@ public class WeightFailover<T> implements Failover<T>, Closeable {
         return getAvailable(n, emptySet());
     }
 
-    private List<T> getAvailable(int n, Collection<T> exclusions) {
-        List<TwoTuple<T, Integer>> snapshot = new LinkedList<>();
-        int sum = 0;
-        for (Entry<T, Integer> entry : currentWeightMap.entrySet()) {
-            int thisWeight = entry.getValue();
-            snapshot.add(tuple(entry.getKey(), thisWeight));
-            sum += thisWeight;
-        }
-        List<T> result = new ArrayList<>();
-        if (sum > 0) {
-            int size = snapshot.size();
-            for (int i = 0; i < size; i++) {
-                if (sum == 0) {
-                    break;
-                }
-                if (result.size() == n) {
-                    break;
+    private SelectSnapshot getSelectSnapshot() {
+        int version = weightVersion.get();
+        Object key = currentFilterKey();
+        if (key != null) {
+            SelectSnapshot snapshot = keyedSelectSnapshot.getIfPresent(key);
+            if (snapshot == null || needRebuild(snapshot, version)) {
+                snapshot = buildSelectSnapshot(version, allAvailableVersion.get(), key);
+                keyedSelectSnapshot.put(key, snapshot);
+            }
+            return snapshot;
+        }
+        SelectSnapshot snapshot = selectSnapshot;
+        if (needRebuild(snapshot, version)) {
+            snapshot = buildSelectSnapshot(version, allAvailableVersion.get(), null);
+            selectSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    private boolean needRebuild(SelectSnapshot snapshot, int version) {
+        if (snapshot.version == version) {
+            return false;
+        }
+        return snapshot.availableVersion != allAvailableVersion.get()
+                || System.nanoTime() - snapshot.buildNanos >= SNAPSHOT_MAX_STALENESS_NANOS;
+    }
+
+    private SelectSnapshot buildSelectSnapshot(int version, int availableVersion, @Nullable Object key) {
+        int size = weightTable.size();
+        Object[] resources = new Object[size];
+        int[] weights = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int weight = weightTable.currentWeight(i);
+            T item = weightTable.resource(i);
+            if (weight > 0 && matchKey(item, key)) {
+                resources[count] = item;
+                weights[count] = weight;
+                count++;
+            }
+        }
+        return new SelectSnapshot(version, availableVersion, resources, weights, count);
+    }
+
+    private boolean accept(T obj, Collection<T> exclusions) {
+        return !exclusions.contains(obj) && (filter == null || filter.test(obj));
+    }
+
+    /**
+     * 按权重随机选择一个资源，不记录调用统计。
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    T selectOne(Collection<T> exclusions) {
+        SelectSnapshot snapshot = getSelectSnapshot();
+        int totalWeight = snapshot.totalWeight;
+        if (totalWeight <= 0) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Object[] resources = snapshot.resources;
+        if (filter == null && exclusions.isEmpty()) {
+            return (T) resources[snapshot.indexOf(random.nextInt(totalWeight))];
+        }
+        for (int i = 0; i < SELECT_RETRY_TIMES; i++) {
+            T obj = (T) resources[snapshot.indexOf(random.nextInt(totalWeight))];
+            if (accept(obj, exclusions)) {
+                return obj;
+            }
+        }
+        // too many resources are excluded, pick one from the accepted ones by a linear scan
+        int[] weights = snapshot.weights;
+        int count = resources.length;
+        int acceptedWeight = 0;
+        for (int i = 0; i < count; i++) {
+            if (accept((T) resources[i], exclusions)) {
+                acceptedWeight += weights[i];
+            }
+        }
+        if (acceptedWeight <= 0) {
+            return null;
+        }
+        int left = random.nextInt(acceptedWeight);
+        for (int i = 0; i < count; i++) {
+            T obj = (T) resources[i];
+            if (accept(obj, exclusions)) {
+                if (left < weights[i]) {
+                    return obj;
                 }
-                int left = ThreadLocalRandom.current().nextInt(sum);
-                Iterator<TwoTuple<T, Integer>> iterator = snapshot.iterator();
-                while (iterator.hasNext()) {
-                    TwoTuple<T, Integer> candidate = iterator.next();
-                    int entryWeight = candidate.getSecond();
-                    if (left < entryWeight) {
-                        T obj = candidate.getFirst();
-                        if (!exclusions.contains(obj) && (filter == null || filter.test(obj))) {
-                            result.add(obj);
-                        }
-                        if (result.size() == n) {
-                            break;
-                        }
-                        iterator.remove();
-                        sum -= entryWeight;
-                        break;
+                left -= weights[i];
+            }
+        }
+        // the filter is not stable between the two loops
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> getAvailable(int n, Collection<T> exclusions) {
+        SelectSnapshot snapshot = getSelectSnapshot();
+        int sum = snapshot.totalWeight;
+        if (sum <= 0 || n <= 0) {
+            return new ArrayList<>();
+        }
+        Object[] resources = snapshot.resources;
+        int count = resources.length;
+        int[] weights = snapshot.weights.clone();
+        List<T> result = new ArrayList<>(min(n, count));
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (sum > 0 && result.size() < n) {
+            int left = random.nextInt(sum);
+            for (int i = 0; i < count; i++) {
+                int entryWeight = weights[i];
+                if (left < entryWeight) {
+                    T obj = (T) resources[i];
+                    if (accept(obj, exclusions)) {
+                        result.add(obj);
                     }
-                    left -= entryWeight;
+                    weights[i] = 0;
+                    sum -= entryWeight;
+                    break;
                 }
+                left -= entryWeight;
             }
         }
         return result;
@@ -316,48 +714,111 @@ public class WeightFailover<T> implements Failover<T>, Closeable {
 
     @Override
     public void success(T object) {
-        boolean[] availableChanged = { false };
-        currentWeightMap.compute(object, (k, oldValue) -> {
-            if (oldValue == null) {
-                if (weightOnMissingNode == null) {
-                    logger.warn("invalid fail obj:{}, it's not in original list.", object);
-                    return null;
-                } else {
-                    availableChanged[0] = true;
-                    oldValue = weightOnMissingNode;
-                    initWeightMap.putIfAbsent(object, weightOnMissingNode);
-                }
-            }
-            int initWeight = initWeightMap.get(k);
-            int weight = min(initWeight, oldValue + successIncreaseWeight.applyAsInt(initWeight));
-            if (oldValue <= 0 && weight > 0) {
-                availableChanged[0] = true;
-            }
-            return weight;
-        });
-        if (availableChanged[0]) {
-            allAvailableVersion.incrementAndGet();
+        onWeightChanged(doSuccess(object, -1));
+    }
+
+    /**
+     * 报告调用成功以及本次调用的延迟，延迟只用于调用统计（见{@link WeightFailoverBuilder#metrics(boolean)}），
+     * 权重的变化和{@link #success(Object)}一样。
+     * @param object 被调用的资源
+     * @param latencyNanos 本次调用的延迟（纳秒）
+     */
+    public void success(T object, long latencyNanos) {
+        onWeightChanged(doSuccess(object, latencyNanos));
+    }
+
+    /**
+     * @param latencyNanos 本次调用的延迟，小于0表示没有报告
+     */
+    private int doSuccess(T object, long latencyNanos) {
+        if (object == null) {
+            logger.warn("invalid success call, null object found.");
+            return 0;
+        }
+        int index = indexOf(object);
+        if (index < 0) {
+            logger.warn("invalid fail obj:{}, it's not in original list.", object);
+            return 0;
+        }
+        ResourceMetrics resourceMetrics = metricsOf(object);
+        if (resourceMetrics != null) {
+            resourceMetrics.recordSuccess(latencyNanos);
+        }
+        int initWeight = weightTable.initWeight(index);
+        int oldValue;
+        int weight;
+        do {
+            oldValue = weightTable.currentWeight(index);
+            weight = min(initWeight, oldValue + successIncreaseWeight.applyAsInt(initWeight));
+        } while (weight != oldValue && !weightTable.compareAndSet(index, oldValue, weight));
+        if (weight == oldValue) {
+            return 0;
+        }
+        FailoverEvents.weightChanged(name, object, oldValue, weight, minWeight, initWeight);
+        if (resourceMetrics != null && oldValue <= minWeight && weight > minWeight) {
+            resourceMetrics.recordRecovery();
         }
+        return oldValue <= 0 && weight > 0 ? WEIGHT_CHANGED | AVAILABLE_CHANGED : WEIGHT_CHANGED;
     }
 
     @Override
     public Set<T> getFailed() {
-        return currentWeightMap.entrySet().stream()
-                .filter(entry -> entry.getValue() == 0)
-                .map(Entry::getKey)
-                .collect(toSet());
+        Set<T> result = new HashSet<>();
+        int size = weightTable.size();
+        for (int i = 0; i < size; i++) {
+            if (weightTable.currentWeight(i) == 0) {
+                result.add(weightTable.resource(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取一个资源的调用统计，需要通过{@link WeightFailoverBuilder#metrics(boolean)}开启。
+     * @param resource 资源
+     * @return 资源的调用统计（实时的），没有开启或者资源不存在时返回null
+     */
+    @Nullable
+    public ResourceMetrics getMetrics(T resource) {
+        return metricsOf(resource);
+    }
+
+    /**
+     * 遍历所有资源的调用统计，按资源加入的顺序，没有开启调用统计时什么都不做。
+     * @param visitor 访问者
+     */
+    public void visitMetrics(@Nonnull MetricsVisitor<T> visitor) {
+        if (metrics == null) {
+            return;
+        }
+        int size = weightTable.size();
+        for (int i = 0; i < size; i++) {
+            T resource = weightTable.resource(i);
+            ResourceMetrics resourceMetrics = metricsOf(resource);
+            if (resourceMetrics != null) {
+                visitor.visit(resource, resourceMetrics);
+            }
+        }
     }
 
     int currentWeight(T obj) {
-        return currentWeightMap.get(obj);
+        return weightTable.currentWeight(checkedIndexOf(obj));
     }
 
     int initWeight(T obj) {
-        return initWeightMap.get(obj);
+        return weightTable.initWeight(checkedIndexOf(obj));
+    }
+
+    private int checkedIndexOf(T obj) {
+        int index = weightTable.indexOf(obj);
+        if (index < 0) {
+            throw new IllegalStateException("obj:" + obj);
+        }
+        return index;
     }
 
     @Override
     public String toString() {
-        return "WeightFailover [" + initWeightMap + "]" + "@" + Integer.toHexString(hashCode());
+        return "WeightFailover [" + weightTable + "]" + "@" + Integer.toHexString(hashCode());
     }
 }
@@ -2,6 +2,7 @@ package com.github.phantomthief.failover.impl;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.toMap;
@@ -9,10 +10,13 @@ import static org.slf4j.LoggerFactory.getLogger;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.IntUnaryOperator;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.function.ToDoubleFunction;
 
 import javax.annotation.CheckReturnValue;
@@ -21,6 +25,8 @@ import javax.annotation.Nonnull;
 
 import org.slf4j.Logger;
 
+import com.github.phantomthief.failover.impl.checker.AsyncChecker;
+import com.github.phantomthief.failover.util.SharedCheckExecutorHolder;
 import com.github.phantomthief.util.ThrowableFunction;
 import com.github.phantomthief.util.ThrowablePredicate;
 
@@ -45,7 +51,12 @@ public class WeightFailoverBuilder<T> {
 
     Map<T, Integer> initWeightMap;
     ToDoubleFunction<T> checker;
+    AsyncChecker<? super T> asyncChecker;
+    double asyncRecoveredInitRate;
+    long asyncCheckTimeout;
     long checkDuration;
+    ScheduledExecutorService checkExecutor;
+    boolean metrics;
     Consumer<T> onMinWeight;
     Consumer<T> onRecovered;
     int minWeight = 0;
@@ -53,6 +64,8 @@ public class WeightFailoverBuilder<T> {
     String name;
 
     Predicate<T> filter;
+    Function<? super T, ?> filterKey;
+    Supplier<?> contextFilterKey;
 
     /**
      * 设定failover的name。
@@ -207,6 +220,34 @@ public class WeightFailoverBuilder<T> {
         return this;
     }
 
+    /**
+     * 指定健康检查使用的调度线程池，如果不指定会用{@link SharedCheckExecutorHolder#getInstance()}。
+     * 创建了大量failover的时候可以使用{@link SharedCheckExecutorHolder#getWheelInstance()}。
+     * @param checkExecutor 线程池
+     * @return this
+     */
+    @CheckReturnValue
+    @Nonnull
+    public WeightFailoverBuilder<T> checkExecutor(@Nonnull ScheduledExecutorService checkExecutor) {
+        checkNotNull(checkExecutor);
+        this.checkExecutor = checkExecutor;
+        return this;
+    }
+
+    /**
+     * 开启每个资源的调用统计，通过{@link WeightFailover#getMetrics(Object)}或者
+     * {@link WeightFailover#visitMetrics(MetricsVisitor)}读取，默认不开启。
+     * @param metrics 是否开启
+     * @return this
+     * @see ResourceMetrics
+     */
+    @CheckReturnValue
+    @Nonnull
+    public WeightFailoverBuilder<T> metrics(boolean metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
     /**
      * 指定一个过滤器，从failover获取资源的时候会过滤掉部分资源。
      * @param filter 用户定义的过滤器
@@ -224,6 +265,34 @@ public class WeightFailoverBuilder<T> {
         return thisBuilder;
     }
 
+    /**
+     * 指定一个按分区key过滤的过滤器，资源的分区key和当前上下文的分区key相等时才会被选中，比如按机房就近访问。
+     *
+     * 和{@link #filter(Predicate)}不同，WeightFailover会为每个分区key缓存一份可用列表和选择快照，
+     * 只有资源列表或者权重变化以后才重新构建，所以getAvailable这些方法不需要每次都扫描全部资源。
+     * 分区key的取值应该是少量固定的（比如机房、分片，几个到几百个），不能是用户id、请求id这种取值很多的字段：
+     * 缓存最多保留{@link WeightFailover#MAX_CACHED_FILTER_KEYS}个分区key，超过以后会频繁的淘汰和重建，退化为每次扫描全部资源。
+     * 不能和{@link #filter(Predicate)}同时使用。
+     *
+     * @param filterKey 资源的分区key，对同一个资源总是返回相同的结果
+     * @param contextFilterKey 当前请求的分区key，通常从ThreadLocal中获取，返回null表示不过滤
+     * @param <E> 资源类型
+     * @return this
+     */
+    @CheckReturnValue
+    @Nonnull
+    public <E> WeightFailoverBuilder<E> keyedFilter(@Nonnull Function<? super E, ?> filterKey,
+            @Nonnull Supplier<?> contextFilterKey) {
+        checkNotNull(filterKey);
+        checkNotNull(contextFilterKey);
+
+        @SuppressWarnings("unchecked")
+        WeightFailoverBuilder<E> thisBuilder = (WeightFailoverBuilder<E>) this;
+        thisBuilder.filterKey = filterKey;
+        thisBuilder.contextFilterKey = contextFilterKey;
+        return thisBuilder;
+    }
+
     /**
      * 指定健康检查器，健康检查器将在资源达到最小权重后开始针对该资源调度。
      * @param failChecker 健康检查器，输入是资源，输出是健康检查成功后，需要恢复的最大权重比例
@@ -265,6 +334,32 @@ public class WeightFailoverBuilder<T> {
         return checker(it -> failChecker.test(it) ? recoveredInitRate : 0);
     }
 
+    /**
+     * 指定异步的健康检查器，健康检查器将在资源达到最小权重后开始针对该资源调度。检查期间不占用健康检查线程，
+     * 同一轮中所有需要检查的资源同时发起检查，所有检查结束（或者超时）以后才会开始下一轮。指定以后同步的checker不再生效。
+     * @param asyncChecker 异步健康检查器
+     * @param recoveredInitRate 健康检查成功后，需要恢复的最大权重的比例
+     * @param timeout 每个检查的超时时间，超时视为检查失败
+     * @param unit 超时时间的单位
+     * @param <E> 资源类型
+     * @return this
+     */
+    @SuppressWarnings("unchecked")
+    @CheckReturnValue
+    @Nonnull
+    public <E> WeightFailoverBuilder<E> asyncChecker(@Nonnull AsyncChecker<? super E> asyncChecker,
+            @Nonnegative double recoveredInitRate, long timeout, @Nonnull TimeUnit unit) {
+        checkNotNull(asyncChecker);
+        checkNotNull(unit);
+        checkArgument(recoveredInitRate >= 0 && recoveredInitRate <= 1);
+        checkArgument(timeout > 0);
+        WeightFailoverBuilder<E> thisBuilder = (WeightFailoverBuilder<E>) this;
+        thisBuilder.asyncChecker = asyncChecker;
+        thisBuilder.asyncRecoveredInitRate = recoveredInitRate;
+        thisBuilder.asyncCheckTimeout = unit.toMillis(timeout);
+        return thisBuilder;
+    }
+
     /**
      * 构造一个WeightFailover实例，使用100作为默认的初始/最大权重。WeightFailover没有区分初始权重和最大权重，初始权重和最大权重是相等的。
      * @param original 资源列表
@@ -312,13 +407,16 @@ public class WeightFailoverBuilder<T> {
 
     private void ensure() {
         if (minWeight <= 0) { // if min weight>0, there is no checker need.
-            checkNotNull(checker);
+            if (asyncChecker == null) {
+                checkNotNull(checker);
+            }
         } else {
-            if (checker != null) {
+            if (checker != null || asyncChecker != null) {
                 logger.warn(
                         "a failover checker found but minWeight>0. the checker would never reached.");
             }
         }
+        checkState(filter == null || filterKey == null, "filter and keyedFilter can not be used together");
         if (failReduceWeight == null) {
             failReduceWeight = i -> DEFAULT_FAIL_REDUCE_WEIGHT;
         }
@@ -328,5 +426,8 @@ public class WeightFailoverBuilder<T> {
         if (checkDuration == 0) {
             checkDuration = DEFAULT_CHECK_DURATION;
         }
+        if (checkExecutor == null) {
+            checkExecutor = SharedCheckExecutorHolder.getInstance();
+        }
     }
 }
\ No newline at end of file
@@ -7,14 +7,18 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 
 import java.lang.ref.PhantomReference;
 import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
+import javax.annotation.Nullable;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,9 +45,16 @@ class WeightFailoverCheckTask<T> {
 
     private final WeightFailoverBuilder<T> builder;
     private final AtomicBoolean closed;
-    private final ConcurrentMap<T, Integer> initWeightMap;
-    private final ConcurrentMap<T, Integer> currentWeightMap;
+    private final WeightTable<T> weightTable;
     private final AtomicInteger allAvailableVersion;
+    private final AtomicInteger weightVersion;
+    @Nullable
+    private final Map<T, ResourceMetrics> metrics;
+
+    /**
+     * 使用异步检查器时，本轮还没有结束的检查数。
+     */
+    private final AtomicInteger runningAsyncChecks = new AtomicInteger();
 
     private final CloseableSupplier<ScheduledFuture<?>> recoveryFuture;
 
@@ -76,18 +87,21 @@ class WeightFailoverCheckTask<T> {
     // lambda会隐式持有this，所以弄一个静态类
     static class RecoveryFutureSupplier implements Supplier<ScheduledFuture<?>> {
         private Runnable runnable;
+        private final ScheduledExecutorService executor;
         private final long initDelay;
         private final long delay;
 
-        public RecoveryFutureSupplier(Runnable runnable, long initDelay, long delay) {
+        public RecoveryFutureSupplier(Runnable runnable, ScheduledExecutorService executor, long initDelay,
+                long delay) {
             this.runnable = runnable;
+            this.executor = executor;
             this.initDelay = initDelay;
             this.delay = delay;
         }
 
         @Override
         public ScheduledFuture<?> get() {
-            ScheduledFuture<?> f = SharedCheckExecutorHolder.getInstance().scheduleWithFixedDelay(
+            ScheduledFuture<?> f = executor.scheduleWithFixedDelay(
                     runnable, initDelay, delay, MILLISECONDS);
             runnable = null;
             return f;
@@ -95,14 +109,16 @@ class WeightFailoverCheckTask<T> {
     }
 
     WeightFailoverCheckTask(WeightFailover<T> failover, WeightFailoverBuilder<T> builder, AtomicBoolean closed,
-            ConcurrentMap<T, Integer> initWeightMap, ConcurrentMap<T, Integer> currentWeightMap,
-            AtomicInteger allAvailableVersion) {
+            WeightTable<T> weightTable, AtomicInteger allAvailableVersion, AtomicInteger weightVersion,
+            @Nullable Map<T, ResourceMetrics> metrics) {
         this.builder = builder;
         this.closed = closed;
-        this.initWeightMap = initWeightMap;
-        this.currentWeightMap = currentWeightMap;
+        this.weightTable = weightTable;
         this.allAvailableVersion = allAvailableVersion;
-        this.recoveryFuture = lazy(new RecoveryFutureSupplier(this::run, builder.checkDuration, builder.checkDuration));
+        this.weightVersion = weightVersion;
+        this.metrics = metrics;
+        this.recoveryFuture = lazy(new RecoveryFutureSupplier(this::run, builder.checkExecutor,
+                builder.checkDuration, builder.checkDuration));
 
         phantomReference = new MyPhantomReference<>(failover, REF_QUEUE, recoveryFuture, closed);
     }
@@ -129,35 +145,101 @@ class WeightFailoverCheckTask<T> {
             currentThread.setName(origName + "-[" + builder.name + "]");
         }
         try {
+            if (builder.asyncChecker != null) {
+                asyncCheck();
+                return;
+            }
             Map<T, Double> recoveredObjects = new HashMap<>();
-            this.currentWeightMap.forEach((obj, weight) -> {
-                if (weight == 0) {
+            int size = weightTable.size();
+            for (int i = 0; i < size; i++) {
+                if (weightTable.currentWeight(i) == 0) {
+                    T obj = weightTable.resource(i);
+                    long start = System.nanoTime();
                     double recoverRate = builder.checker.applyAsDouble(obj);
+                    FailoverEvents.checkExecuted(builder.name, obj, recoverRate > 0, System.nanoTime() - start);
                     if (recoverRate > 0) {
                         recoveredObjects.put(obj, recoverRate);
                     }
                 }
-            });
+            }
             if (!recoveredObjects.isEmpty()) {
                 logger.info("found recovered objects:{}", recoveredObjects);
             }
-            recoveredObjects.forEach((recovered, rate) -> {
-                Integer initWeight = initWeightMap.get(recovered);
-                if (initWeight == null) {
-                    throw new IllegalStateException("obj:" + recovered);
-                }
-                int recoveredWeight = constrainToRange((int) (initWeight * rate), 1,
-                        initWeight);
-                currentWeightMap.put(recovered, recoveredWeight);
-                allAvailableVersion.incrementAndGet();
-                if (builder.onRecovered != null) {
-                    builder.onRecovered.accept(recovered);
-                }
-            });
+            recoveredObjects.forEach(this::recover);
         } catch (Throwable e) {
             logger.error("", e);
         } finally {
             currentThread.setName(origName);
         }
     }
+
+    /**
+     * 同时发起所有权重为0的资源的异步检查，检查结果在完成检查的线程中处理。
+     * 上一轮还有检查没有结束时跳过本轮，避免对同一个资源重复检查。
+     */
+    private void asyncCheck() {
+        if (runningAsyncChecks.get() > 0) {
+            return;
+        }
+        List<T> toCheck = new ArrayList<>();
+        int size = weightTable.size();
+        for (int i = 0; i < size; i++) {
+            if (weightTable.currentWeight(i) == 0) {
+                toCheck.add(weightTable.resource(i));
+            }
+        }
+        long timeoutNanos = MILLISECONDS.toNanos(builder.asyncCheckTimeout);
+        for (T obj : toCheck) {
+            // 每个检查单独计数，检查发起失败时也要把计数还回去，否则后面每一轮都会被跳过
+            runningAsyncChecks.incrementAndGet();
+            boolean submitted = false;
+            try {
+                long start = System.nanoTime();
+                AsyncChecks.checkWithTimeout(builder.asyncChecker, obj, builder.checkExecutor,
+                        timeoutNanos).thenAccept(ok -> {
+                            try {
+                                FailoverEvents.checkExecuted(builder.name, obj, ok, System.nanoTime() - start);
+                                if (ok && !closed.get() && builder.asyncRecoveredInitRate > 0) {
+                                    logger.info("found recovered object:{}", obj);
+                                    recover(obj, builder.asyncRecoveredInitRate);
+                                }
+                            } catch (Throwable e) {
+                                logger.error("", e);
+                            } finally {
+                                runningAsyncChecks.decrementAndGet();
+                            }
+                        });
+                submitted = true;
+            } catch (Throwable e) {
+                logger.error("", e);
+            } finally {
+                if (!submitted) {
+                    runningAsyncChecks.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void recover(T recovered, double rate) {
+        int index = weightTable.indexOf(recovered);
+        if (index < 0) {
+            throw new IllegalStateException("obj:" + recovered);
+        }
+        int initWeight = weightTable.initWeight(index);
+        int recoveredWeight = constrainToRange((int) (initWeight * rate), 1,
+                initWeight);
+        int oldWeight = weightTable.currentWeight(index);
+        weightTable.set(index, recoveredWeight);
+        FailoverEvents.weightChanged(builder.name, recovered, oldWeight, recoveredWeight, builder.minWeight,
+                initWeight);
+        allAvailableVersion.incrementAndGet();
+        weightVersion.incrementAndGet();
+        if (metrics != null) {
+            ResourceMetrics resourceMetrics = metrics.computeIfAbsent(recovered, k -> new ResourceMetrics());
+            resourceMetrics.recordRecovery();
+        }
+        if (builder.onRecovered != null) {
+            builder.onRecovered.accept(recovered);
+        }
+    }
 }
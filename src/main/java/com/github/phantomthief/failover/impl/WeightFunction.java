@@ -39,6 +39,26 @@ public interface WeightFunction<T> {
      */
     double fail(double maxWeight, double minWeight, int priority, double currentOldWeight, T resource);
 
+    /**
+     * 每次报告调用结果（包括健康检查的结果）都会调用本方法，即使因为权重已经等于最大/最小权重，
+     * 随后不会调用{@link #success}/{@link #fail}。不在Failover内部的锁中调用，需要自己保证线程安全。
+     * 默认什么都不做，需要统计所有调用结果的实现（比如{@link CircuitBreakerWeightFunction}）可以覆盖这个方法。
+     *
+     * @param success 调用是否成功
+     * @param resource 这个资源
+     */
+    default void onResult(boolean success, T resource) {
+    }
+
+    /**
+     * 资源被{@link PriorityFailoverManager}删除以后调用，按资源保存了状态的实现（比如{@link CircuitBreakerWeightFunction}
+     * 的滑动窗口）需要在这里清理，否则资源不断上下线时状态会一直增长。默认什么都不做。
+     *
+     * @param resource 被删除的资源
+     */
+    default void onRemoved(T resource) {
+    }
+
     /**
      * 用来控制一个资源是否需要健康检查，健康检查程序运行时，针对每个资源，逐个调用本方法，如果本方法返回true那么就对相关资源进行
      * 健康检查。
@@ -0,0 +1,149 @@
+package com.github.phantomthief.failover.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * WeightFailover内部的资源表，每个资源在加入时分配一个固定的下标，当前权重保存在{@link AtomicIntegerArray}里面，
+ * 这样success/fail/down只需要一次CAS，不需要装箱，也不需要对ConcurrentHashMap的bin加锁。
+ *
+ * 资源列表只能增加（autoAddOnMissing），增加时整张表copy-on-write，老表中的权重会被逐个替换为{@link #MOVED}，
+ * 并发的读写看到MOVED以后会重新读取新表，所以扩容期间的CAS更新不会丢失。
+ */
+@ThreadSafe
+final class WeightTable<T> {
+
+    /**
+     * 权重总是大于等于0的，用一个负数标记已经迁移到新表的槽位。
+     */
+    private static final int MOVED = Integer.MIN_VALUE;
+
+    private volatile Table<T> table;
+
+    @SuppressWarnings("checkstyle:VisibilityModifier")
+    private static final class Table<T> {
+        final Map<T, Integer> indexes;
+        final Object[] resources;
+        final int[] initWeights;
+        final AtomicIntegerArray currentWeights;
+
+        Table(Map<T, Integer> indexes, Object[] resources, int[] initWeights,
+                AtomicIntegerArray currentWeights) {
+            this.indexes = indexes;
+            this.resources = resources;
+            this.initWeights = initWeights;
+            this.currentWeights = currentWeights;
+        }
+    }
+
+    WeightTable(Map<T, Integer> initWeightMap) {
+        int size = initWeightMap.size();
+        Map<T, Integer> indexes = new HashMap<>(size * 2);
+        Object[] resources = new Object[size];
+        int[] initWeights = new int[size];
+        AtomicIntegerArray currentWeights = new AtomicIntegerArray(size);
+        int index = 0;
+        for (Entry<T, Integer> entry : initWeightMap.entrySet()) {
+            indexes.put(entry.getKey(), index);
+            resources[index] = entry.getKey();
+            initWeights[index] = entry.getValue();
+            currentWeights.set(index, entry.getValue());
+            index++;
+        }
+        this.table = new Table<>(indexes, resources, initWeights, currentWeights);
+    }
+
+    /**
+     * @return 资源的下标，不存在返回-1
+     */
+    int indexOf(T resource) {
+        Integer index = table.indexes.get(resource);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * 添加一个资源，如果资源已经存在直接返回它的下标。
+     */
+    synchronized int addIfAbsent(T resource, int initWeight) {
+        Table<T> old = table;
+        Integer exists = old.indexes.get(resource);
+        if (exists != null) {
+            return exists;
+        }
+        int index = old.resources.length;
+        Map<T, Integer> indexes = new HashMap<>(old.indexes);
+        indexes.put(resource, index);
+        Object[] resources = Arrays.copyOf(old.resources, index + 1);
+        resources[index] = resource;
+        int[] initWeights = Arrays.copyOf(old.initWeights, index + 1);
+        initWeights[index] = initWeight;
+        AtomicIntegerArray currentWeights = new AtomicIntegerArray(index + 1);
+        for (int i = 0; i < index; i++) {
+            currentWeights.set(i, old.currentWeights.getAndSet(i, MOVED));
+        }
+        currentWeights.set(index, initWeight);
+        table = new Table<>(indexes, resources, initWeights, currentWeights);
+        return index;
+    }
+
+    int size() {
+        return table.resources.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    T resource(int index) {
+        return (T) table.resources[index];
+    }
+
+    int initWeight(int index) {
+        return table.initWeights[index];
+    }
+
+    int currentWeight(int index) {
+        while (true) {
+            int weight = table.currentWeights.get(index);
+            if (weight != MOVED) {
+                return weight;
+            }
+            // a grow is in progress, wait for the new table
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @return 如果当前值不是expect（包括槽位已经迁移到新表），返回false，调用方应该重新读取后再试
+     */
+    boolean compareAndSet(int index, int expect, int update) {
+        return table.currentWeights.compareAndSet(index, expect, update);
+    }
+
+    void set(int index, int weight) {
+        int current;
+        do {
+            current = currentWeight(index);
+        } while (!compareAndSet(index, current, weight));
+    }
+
+    @SuppressWarnings("unchecked")
+    List<T> resources() {
+        return new ArrayList<>((List<T>) (List<?>) Arrays.asList(table.resources));
+    }
+
+    @Override
+    public String toString() {
+        Table<T> t = table;
+        Map<Object, Integer> initWeightMap = new LinkedHashMap<>();
+        for (int i = 0; i < t.resources.length; i++) {
+            initWeightMap.put(t.resources[i], t.initWeights[i]);
+        }
+        return initWeightMap.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.phantomthief.failover.impl.checker;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * 异步的健康检查器，和同步的检查器（Predicate/ToDoubleFunction）不同，检查期间不占用健康检查线程，
+ * 所以大量的failover可以共用一个很小的线程池，同时探活很多资源。
+ *
+ * @see com.github.phantomthief.failover.impl.PriorityFailoverBuilder#asyncChecker(AsyncChecker, java.time.Duration)
+ * @see com.github.phantomthief.failover.impl.WeightFailoverBuilder#asyncChecker(AsyncChecker, double, long,
+ * java.util.concurrent.TimeUnit)
+ */
+@FunctionalInterface
+public interface AsyncChecker<T> {
+
+    /**
+     * 发起一次健康检查，不能阻塞。
+     *
+     * @param resource 需要检查的资源
+     * @return 检查结果，true表示健康，false或者异常结束表示不健康
+     */
+    @Nonnull
+    CompletableFuture<Boolean> check(T resource);
+
+    /**
+     * 把返回ListenableFuture的检查转换成AsyncChecker，future正常结束表示健康，异常结束表示不健康，
+     * 比如 {@code AsyncChecker.fromListenableFuture(SimplePortChecker::asyncCheck)}。
+     *
+     * @param checker 返回ListenableFuture的检查
+     * @param <T> 资源类型
+     * @return AsyncChecker
+     */
+    @Nonnull
+    static <T> AsyncChecker<T> fromListenableFuture(
+            @Nonnull Function<? super T, ? extends ListenableFuture<?>> checker) {
+        return resource -> {
+            ListenableFuture<?> future = checker.apply(resource);
+            CompletableFuture<Boolean> result = new CompletableFuture<Boolean>() {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    future.cancel(mayInterruptIfRunning);
+                    return super.cancel(mayInterruptIfRunning);
+                }
+            };
+            future.addListener(() -> {
+                try {
+                    future.get();
+                    result.complete(true);
+                } catch (Throwable e) {
+                    result.complete(false);
+                }
+            }, directExecutor());
+            return result;
+        };
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.phantomthief.failover.impl.checker;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 合并重复健康检查的检查器。按分片创建大量failover的时候，同一个资源通常会出现在很多failover中，
+ * 每个failover都会在自己的健康检查任务里检查一次。用同一个DedupChecker实例作为这些failover的检查器，
+ * 同一个资源同一时刻只会有一次真正的检查，其它调用等待这次检查的结果；检查结束后resultTtl内的调用直接复用结果。
+ *
+ * 检查抛出的异常也会传给所有等待的调用，异常的结果不会被复用。
+ *
+ * <pre>{@code
+ * DedupChecker<String> checker = new DedupChecker<>(this::check, Duration.ofMillis(500));
+ * PriorityFailover.newBuilder().checker(checker)...
+ * WeightFailover.newGenericBuilder().checker(checker::test, 1)...
+ * }</pre>
+ */
+@ThreadSafe
+public class DedupChecker<T> implements Predicate<T> {
+
+    private static final int CLEAN_INTERVAL = 1024;
+
+    private final Predicate<T> delegate;
+    private final long resultTtlNanos;
+
+    private final ConcurrentHashMap<T, Check> checks = new ConcurrentHashMap<>();
+    private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * @param delegate 真正的检查器
+     * @param resultTtl 检查结果复用的时间，一般小于健康检查的间隔，0表示只合并同时进行的检查
+     */
+    public DedupChecker(@Nonnull Predicate<T> delegate, @Nonnull Duration resultTtl) {
+        if (resultTtl.isNegative()) {
+            throw new IllegalArgumentException("bad resultTtl:" + resultTtl);
+        }
+        this.delegate = delegate;
+        this.resultTtlNanos = resultTtl.toNanos();
+    }
+
+    @Override
+    public boolean test(T resource) {
+        if ((counter.incrementAndGet() & (CLEAN_INTERVAL - 1)) == 0) {
+            cleanExpired();
+        }
+        while (true) {
+            Check check = checks.get(resource);
+            if (check != null && check.reusable()) {
+                return check.join();
+            }
+            Check newCheck = new Check();
+            boolean owner = check == null ? checks.putIfAbsent(resource, newCheck) == null
+                    : checks.replace(resource, check, newCheck);
+            if (!owner) {
+                continue;
+            }
+            try {
+                boolean result = delegate.test(resource);
+                newCheck.complete(result);
+                return result;
+            } catch (Throwable e) {
+                checks.remove(resource, newCheck);
+                newCheck.future.completeExceptionally(e);
+                throw e;
+            } finally {
+                if (resultTtlNanos == 0) {
+                    checks.remove(resource, newCheck);
+                }
+            }
+        }
+    }
+
+    private void cleanExpired() {
+        checks.values().removeIf(c -> c.future.isDone() && !c.reusable());
+    }
+
+    private class Check {
+
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        private volatile long doneNanos;
+
+        void complete(boolean result) {
+            doneNanos = System.nanoTime();
+            future.complete(result);
+        }
+
+        /**
+         * 还在检查中，或者检查结束不超过resultTtl。
+         */
+        boolean reusable() {
+            return !future.isDone() || System.nanoTime() - doneNanos < resultTtlNanos
+                    && !future.isCompletedExceptionally();
+        }
+
+        boolean join() {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -4,7 +4,15 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.Channel;
 import java.nio.channels.CompletionHandler;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -46,6 +54,114 @@ public class SimplePortChecker {
         }
     }
 
+    /**
+     * 使用默认的5秒超时批量检查多个端口，见{@link #batchCheck(Collection, int)}。
+     *
+     * @param hostAndPorts 需要检查的端口
+     * @return 每个端口的检查结果，顺序和传入的一致
+     */
+    @Nonnull
+    public static Map<HostAndPort, Boolean> batchCheck(@Nonnull Collection<HostAndPort> hostAndPorts) {
+        return batchCheck(hostAndPorts, DEFAULT_CONNECTION_TIMEOUT);
+    }
+
+    /**
+     * 在当前线程中用一个Selector批量检查多个端口，所有连接同时以非阻塞的方式发起，共用一个超时时间，
+     * 一个线程一轮就可以检查成百上千个端口。
+     * 所有地址在发起连接之前先逐个解析（使用系统的DNS缓存和超时），解析的时间不计入超时时间，解析失败的地址视为不健康。
+     *
+     * @param hostAndPorts 需要检查的端口
+     * @param connectionTimeoutInMs 所有连接共用的超时时间
+     * @return 每个端口的检查结果，顺序和传入的一致，连接成功为true，失败、超时或者无法解析的地址为false
+     */
+    @Nonnull
+    public static Map<HostAndPort, Boolean> batchCheck(@Nonnull Collection<HostAndPort> hostAndPorts,
+            int connectionTimeoutInMs) {
+        Map<HostAndPort, Boolean> result = new LinkedHashMap<>();
+        Map<HostAndPort, InetSocketAddress> addresses = new LinkedHashMap<>();
+        for (HostAndPort hostAndPort : hostAndPorts) {
+            result.put(hostAndPort, false);
+            // resolve before the timeout starts, so a slow DNS doesn't eat the time of the connections
+            InetSocketAddress address = new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort());
+            if (!address.isUnresolved()) {
+                addresses.put(hostAndPort, address);
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectionTimeoutInMs);
+        try (Selector selector = Selector.open()) {
+            try {
+                int pending = 0;
+                for (Map.Entry<HostAndPort, InetSocketAddress> entry : addresses.entrySet()) {
+                    if (connect(selector, entry.getKey(), entry.getValue(), result)) {
+                        pending++;
+                    }
+                }
+                while (pending > 0) {
+                    long remainingNanos = deadline - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        break;
+                    }
+                    // round up, select(0) means no timeout
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos + 999_999)));
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        SocketChannel channel = (SocketChannel) key.channel();
+                        try {
+                            result.put((HostAndPort) key.attachment(), channel.finishConnect());
+                        } catch (Throwable e) {
+                            // connection refused etc.
+                        }
+                        key.cancel();
+                        closeQuietly(channel);
+                        pending--;
+                    }
+                }
+            } finally {
+                // timeout
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key.channel());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("", e);
+        }
+        return result;
+    }
+
+    /**
+     * @return 是否需要等待连接完成
+     */
+    private static boolean connect(Selector selector, HostAndPort hostAndPort, InetSocketAddress address,
+            Map<HostAndPort, Boolean> result) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(address)) {
+                result.put(hostAndPort, true);
+                closeQuietly(channel);
+                return false;
+            }
+            channel.register(selector, SelectionKey.OP_CONNECT, hostAndPort);
+            return true;
+        } catch (Throwable e) {
+            if (channel != null) {
+                closeQuietly(channel);
+            }
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.error("", e);
+        }
+    }
+
     @Nonnull
     public static ListenableFuture<Void> asyncCheck(@Nonnull HostAndPort hostAndPort) {
         return asyncCheck(hostAndPort.getHost(), hostAndPort.getPort());
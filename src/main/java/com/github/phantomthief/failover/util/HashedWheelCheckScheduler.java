@@ -0,0 +1,345 @@
+package com.github.phantomthief.failover.util;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 基于时间轮（hashed timer wheel）的健康检查调度器，可以替代{@link SharedCheckExecutorHolder#getInstance()}，
+ * 通过{@code PriorityFailoverBuilder#checkExecutor}或者{@code WeightFailoverBuilder#checkExecutor}指定。
+ *
+ * 每个failover都会注册一个周期性的健康检查任务，ScheduledThreadPoolExecutor用一个堆管理所有任务，
+ * 几千个failover的时候每次调度都是O(log n)的堆操作加一次锁竞争。这个调度器只有一个tick线程：
+ * <ul>
+ *     <li>新提交（以及周期任务重新调度）的任务先进入无锁队列，tick线程每个tick把它们放入时间轮对应的槽，O(1)</li>
+ *     <li>每个tick只扫描一个槽，把到期的任务一起交给worker线程池执行，不需要排序</li>
+ *     <li>每次调度的延迟会随机增加[0, jitterRatio * delay)，避免同时创建的大量failover在同一时刻一起做健康检查</li>
+ * </ul>
+ * 代价是调度精度只有一个tick，任务不会提前执行，但可能最多晚一个tick（加上jitter）。
+ *
+ * 同一个资源被多个failover共享时，可以用{@link com.github.phantomthief.failover.impl.checker.DedupChecker}
+ * 包装检查器，合并对同一个资源的重复检查。
+ *
+ * {@link #shutdown()}以后还没有到期的任务都会被取消，不会再执行；worker线程池由调用方管理，不会被关闭。
+ */
+public class HashedWheelCheckScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashedWheelCheckScheduler.class);
+
+    /**
+     * 最大的延迟，避免计算deadline时溢出。
+     */
+    private static final long MAX_DELAY_NANOS = Long.MAX_VALUE / 4;
+
+    private final long tickNanos;
+    private final int mask;
+    private final double jitterRatio;
+    private final ExecutorService worker;
+
+    private final ArrayDeque<WheelTask<?>>[] wheel;
+    private final Queue<WheelTask<?>> pending = new ConcurrentLinkedQueue<>();
+    private final long startNanos;
+    private final Thread tickThread;
+
+    private volatile boolean shutdown;
+
+    /**
+     * 下一个要处理的tick，只有tick线程访问。
+     */
+    private long tick;
+
+    /**
+     * 使用一个单独的线程tick，到期的任务交给worker执行。
+     * @param tickDuration 一个tick的时间，也就是调度的精度
+     * @param ticksPerWheel 时间轮的槽数，会向上取整到2的幂
+     * @param jitterRatio 每次调度随机增加的延迟比例，0表示不增加
+     * @param worker 执行任务的线程池
+     * @param threadFactory 创建tick线程
+     */
+    @SuppressWarnings("unchecked")
+    public HashedWheelCheckScheduler(@Nonnull Duration tickDuration, int ticksPerWheel, double jitterRatio,
+            @Nonnull ExecutorService worker, @Nonnull ThreadFactory threadFactory) {
+        if (tickDuration.isNegative() || tickDuration.isZero()) {
+            throw new IllegalArgumentException("bad tickDuration:" + tickDuration);
+        }
+        if (ticksPerWheel < 1 || ticksPerWheel > (1 << 20)) {
+            throw new IllegalArgumentException("bad ticksPerWheel:" + ticksPerWheel);
+        }
+        if (jitterRatio < 0 || jitterRatio > 1) {
+            throw new IllegalArgumentException("bad jitterRatio:" + jitterRatio);
+        }
+        this.tickNanos = tickDuration.toNanos();
+        int size = Integer.highestOneBit(ticksPerWheel);
+        if (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.jitterRatio = jitterRatio;
+        this.worker = worker;
+        this.wheel = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.startNanos = System.nanoTime();
+        this.tickThread = threadFactory.newThread(this::tickLoop);
+        this.tickThread.start();
+    }
+
+    private void tickLoop() {
+        while (!shutdown) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+            transferPending();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+        // 取消所有还没有执行的任务
+        for (ArrayDeque<WheelTask<?>> bucket : wheel) {
+            bucket.forEach(t -> t.cancel(false));
+            bucket.clear();
+        }
+        drainPending().forEach(t -> t.cancel(false));
+    }
+
+    private void transferPending() {
+        WheelTask<?> task;
+        while ((task = pending.poll()) != null) {
+            if (task.isCancelled()) {
+                continue;
+            }
+            // 在deadline所在tick的结束时处理，所以任务不会提前执行
+            long calculated = (task.deadlineNanos - startNanos) / tickNanos;
+            long ticks = Math.max(calculated, tick);
+            task.remainingRounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(task);
+        }
+    }
+
+    private void expire(ArrayDeque<WheelTask<?>> bucket) {
+        Iterator<WheelTask<?>> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            WheelTask<?> task = iterator.next();
+            if (task.isCancelled()) {
+                iterator.remove();
+            } else if (task.remainingRounds <= 0) {
+                iterator.remove();
+                dispatch(task);
+            } else {
+                task.remainingRounds--;
+            }
+        }
+    }
+
+    private void dispatch(WheelTask<?> task) {
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.warn("check task rejected by worker, cancel it.", e);
+            task.cancel(false);
+        }
+    }
+
+    private List<WheelTask<?>> drainPending() {
+        List<WheelTask<?>> list = new ArrayList<>();
+        WheelTask<?> task;
+        while ((task = pending.poll()) != null) {
+            list.add(task);
+        }
+        return list;
+    }
+
+    private long jitter(long delayNanos) {
+        if (jitterRatio <= 0 || delayNanos <= 0) {
+            return 0;
+        }
+        return (long) (ThreadLocalRandom.current().nextDouble() * jitterRatio * delayNanos);
+    }
+
+    private <V> WheelTask<V> enqueue(WheelTask<V> task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("scheduler is shutdown");
+        }
+        pending.add(task);
+        if (shutdown && pending.remove(task)) {
+            throw new RejectedExecutionException("scheduler is shutdown");
+        }
+        return task;
+    }
+
+    private static long toNanos(long delay, TimeUnit unit) {
+        return Math.max(0, Math.min(unit.toNanos(delay), MAX_DELAY_NANOS));
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return enqueue(new WheelTask<Void>(command, null, toNanos(delay, unit), 0, false));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return enqueue(new WheelTask<>(callable, toNanos(delay, unit)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period,
+            TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("bad period:" + period);
+        }
+        return enqueue(new WheelTask<Void>(command, null, toNanos(initialDelay, unit), toNanos(period, unit),
+                true));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+            TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException("bad delay:" + delay);
+        }
+        return enqueue(new WheelTask<Void>(command, null, toNanos(initialDelay, unit), toNanos(delay, unit),
+                false));
+    }
+
+    /**
+     * 立即交给worker执行，不经过时间轮。
+     */
+    @Override
+    public void execute(@Nonnull Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("scheduler is shutdown");
+        }
+        worker.execute(command);
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(tickThread);
+    }
+
+    @Nonnull
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && !tickThread.isAlive();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        NANOSECONDS.timedJoin(tickThread, unit.toNanos(timeout));
+        return isTerminated();
+    }
+
+    private class WheelTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+
+        /**
+         * 大于0表示fixed rate，小于0表示fixed delay，0表示只执行一次。
+         */
+        private final long period;
+
+        /**
+         * 不包括jitter的下次执行时间，fixed rate的任务以此为基准计算下一次，jitter不会累积。
+         */
+        private long baseNanos;
+
+        private volatile long deadlineNanos;
+
+        /**
+         * 还需要转几圈，只有tick线程访问。
+         */
+        private long remainingRounds;
+
+        WheelTask(Runnable runnable, V result, long delayNanos, long periodNanos, boolean fixedRate) {
+            super(runnable, result);
+            this.period = fixedRate ? periodNanos : -periodNanos;
+            setNextTime(System.nanoTime() + delayNanos, delayNanos);
+        }
+
+        WheelTask(Callable<V> callable, long delayNanos) {
+            super(callable);
+            this.period = 0;
+            setNextTime(System.nanoTime() + delayNanos, delayNanos);
+        }
+
+        private void setNextTime(long base, long delayNanos) {
+            this.baseNanos = base;
+            this.deadlineNanos = base + jitter(delayNanos);
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        @Override
+        public void run() {
+            if (!isPeriodic()) {
+                super.run();
+                return;
+            }
+            if (runAndReset() && !shutdown) {
+                if (period > 0) {
+                    setNextTime(baseNanos + period, period);
+                } else {
+                    setNextTime(System.nanoTime() - period, -period);
+                }
+                pending.add(this);
+                if (shutdown && pending.remove(this)) {
+                    cancel(false);
+                }
+            }
+        }
+
+        @Override
+        public long getDelay(@Nonnull TimeUnit unit) {
+            return unit.convert(deadlineNanos - System.nanoTime(), NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(@Nonnull Delayed o) {
+            if (o == this) {
+                return 0;
+            }
+            return Long.compare(getDelay(NANOSECONDS), o.getDelay(NANOSECONDS));
+        }
+    }
+}
@@ -3,10 +3,16 @@ package com.github.phantomthief.failover.util;
 import static java.lang.String.format;
 import static java.lang.Thread.MIN_PRIORITY;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -15,32 +21,75 @@ import java.util.concurrent.atomic.AtomicLong;
 public class SharedCheckExecutorHolder {
 
     private static final int THREAD_COUNT = 10;
+    private static final int WORKER_THREAD_COUNT = 64;
+    private static final long WHEEL_TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+    private static final double WHEEL_JITTER_RATIO = 0.2;
 
     public static ScheduledExecutorService getInstance() {
         return LazyHolder.INSTANCE;
     }
 
+    /**
+     * 并行健康检查使用的共享线程池，最多64个线程，超出的检查排队等待（排队的时间计入检查的超时时间），
+     * 空闲60秒的线程会被回收。检查很慢或者failover很多的时候，建议通过
+     * PriorityFailoverBuilder#checkWorkerExecutor为每个failover指定单独的线程池。
+     */
+    public static ExecutorService getWorkerInstance() {
+        return WorkerLazyHolder.INSTANCE;
+    }
+
+    /**
+     * 基于时间轮的调度器，tick为100毫秒，每次调度随机增加最多20%的延迟，到期的任务在固定的10个线程中执行。
+     * 可以通过PriorityFailoverBuilder/WeightFailoverBuilder的checkExecutor替代{@link #getInstance()}，
+     * 适合创建了大量failover的场景。
+     *
+     * @see HashedWheelCheckScheduler
+     */
+    public static ScheduledExecutorService getWheelInstance() {
+        return WheelLazyHolder.INSTANCE;
+    }
+
+    private static ThreadFactory newThreadFactory(String namePattern) {
+        return new ThreadFactory() {
+            private AtomicLong count = new AtomicLong();
+            @Override
+            public Thread newThread(Runnable r) {
+                String name = format(namePattern, count.getAndIncrement());
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                thread.setPriority(MIN_PRIORITY);
+                if (Thread.getDefaultUncaughtExceptionHandler() == null) {
+                    thread.setUncaughtExceptionHandler((t, e) -> {
+                        e.printStackTrace();
+                    });
+                }
+                return thread;
+            }
+        };
+    }
+
     private static class LazyHolder {
 
         private static final ScheduledExecutorService INSTANCE = new ScheduledThreadPoolExecutor(
-                THREAD_COUNT,
-                new ThreadFactory() {
-                    private AtomicLong count = new AtomicLong();
-                    private static final String NAME_PATTERN = "scheduled-failover-recovery-check-%d";
-                    @Override
-                    public Thread newThread(Runnable r) {
-                        String name = format(NAME_PATTERN, count.getAndIncrement());
-                        Thread thread = new Thread(r, name);
-                        thread.setDaemon(true);
-                        thread.setPriority(MIN_PRIORITY);
-                        if (Thread.getDefaultUncaughtExceptionHandler() == null) {
-                            thread.setUncaughtExceptionHandler((t, e) -> {
-                                e.printStackTrace();
-                            });
-                        }
-                        return thread;
-                    }
-                }) {
+                THREAD_COUNT, newThreadFactory("scheduled-failover-recovery-check-%d")) {
+
+            public void shutdown() {
+                throw new UnsupportedOperationException();
+            }
+
+            public List<Runnable> shutdownNow() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static class WheelLazyHolder {
+
+        private static final ScheduledExecutorService INSTANCE = new HashedWheelCheckScheduler(
+                Duration.ofMillis(WHEEL_TICK_MILLIS), WHEEL_SIZE, WHEEL_JITTER_RATIO,
+                Executors.newFixedThreadPool(THREAD_COUNT, newThreadFactory("failover-wheel-check-worker-%d")),
+                newThreadFactory("failover-wheel-check-tick-%d")) {
 
             public void shutdown() {
                 throw new UnsupportedOperationException();
@@ -51,4 +100,26 @@ public class SharedCheckExecutorHolder {
             }
         };
     }
+
+    private static class WorkerLazyHolder {
+
+        private static final ExecutorService INSTANCE = newWorkerExecutor();
+
+        private static ExecutorService newWorkerExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKER_THREAD_COUNT, WORKER_THREAD_COUNT,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    newThreadFactory("failover-check-worker-%d")) {
+
+                public void shutdown() {
+                    throw new UnsupportedOperationException();
+                }
+
+                public List<Runnable> shutdownNow() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
 }
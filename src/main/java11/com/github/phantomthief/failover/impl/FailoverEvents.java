@@ -0,0 +1,216 @@
+package com.github.phantomthief.failover.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * failover内部状态变化的诊断事件（Java Flight Recorder），Java 11以上的版本。
+ *
+ * 每个方法先判断对应的事件有没有开启，没有开启时不会创建事件对象，也不会把资源转成字符串。
+ * 运行时没有jdk.jfr模块（比如jlink裁剪过的JRE）时所有方法都不做任何事情。
+ */
+final class FailoverEvents {
+
+    private static final EventType WEIGHT_CHANGE;
+    private static final EventType DOWN;
+    private static final EventType RECOVERED;
+    private static final EventType CHECK_EXECUTED;
+    private static final EventType SELECTION_MISS;
+    private static final EventType GROUP_SWITCH;
+
+    static {
+        EventType weightChange = null;
+        EventType down = null;
+        EventType recovered = null;
+        EventType checkExecuted = null;
+        EventType selectionMiss = null;
+        EventType groupSwitch = null;
+        try {
+            weightChange = EventType.getEventType(WeightChangeEvent.class);
+            down = EventType.getEventType(DownEvent.class);
+            recovered = EventType.getEventType(RecoveredEvent.class);
+            checkExecuted = EventType.getEventType(CheckExecutedEvent.class);
+            selectionMiss = EventType.getEventType(SelectionMissEvent.class);
+            groupSwitch = EventType.getEventType(GroupSwitchEvent.class);
+        } catch (Throwable e) {
+            // jdk.jfr is not available, all events are disabled
+        }
+        WEIGHT_CHANGE = weightChange;
+        DOWN = down;
+        RECOVERED = recovered;
+        CHECK_EXECUTED = checkExecuted;
+        SELECTION_MISS = selectionMiss;
+        GROUP_SWITCH = groupSwitch;
+    }
+
+    private FailoverEvents() {
+        throw new UnsupportedOperationException();
+    }
+
+    static void weightChanged(String failover, Object resource, double oldWeight, double newWeight,
+            double minWeight, double maxWeight) {
+        if (oldWeight == newWeight) {
+            return;
+        }
+        if (isEnabled(WEIGHT_CHANGE)) {
+            WeightChangeEvent event = new WeightChangeEvent();
+            event.failover = failover;
+            event.resource = String.valueOf(resource);
+            event.oldWeight = oldWeight;
+            event.newWeight = newWeight;
+            event.minWeight = minWeight;
+            event.maxWeight = maxWeight;
+            event.commit();
+        }
+        if (newWeight <= minWeight && oldWeight > minWeight) {
+            if (isEnabled(DOWN)) {
+                DownEvent event = new DownEvent();
+                event.failover = failover;
+                event.resource = String.valueOf(resource);
+                event.oldWeight = oldWeight;
+                event.commit();
+            }
+        } else if (oldWeight <= minWeight && newWeight > minWeight) {
+            if (isEnabled(RECOVERED)) {
+                RecoveredEvent event = new RecoveredEvent();
+                event.failover = failover;
+                event.resource = String.valueOf(resource);
+                event.newWeight = newWeight;
+                event.commit();
+            }
+        }
+    }
+
+    static void checkExecuted(String failover, Object resource, boolean healthy, long durationNanos) {
+        if (isEnabled(CHECK_EXECUTED)) {
+            CheckExecutedEvent event = new CheckExecutedEvent();
+            event.failover = failover;
+            event.resource = String.valueOf(resource);
+            event.healthy = healthy;
+            event.checkDuration = durationNanos;
+            event.commit();
+        }
+    }
+
+    static void selectionMiss(String failover, int exclusions) {
+        if (isEnabled(SELECTION_MISS)) {
+            SelectionMissEvent event = new SelectionMissEvent();
+            event.failover = failover;
+            event.exclusions = exclusions;
+            event.commit();
+        }
+    }
+
+    static boolean isGroupSwitchEnabled() {
+        return isEnabled(GROUP_SWITCH);
+    }
+
+    static void groupSwitch(String failover, int previousPriority, int selectedPriority) {
+        if (isEnabled(GROUP_SWITCH)) {
+            GroupSwitchEvent event = new GroupSwitchEvent();
+            event.failover = failover;
+            event.previousPriority = previousPriority;
+            event.selectedPriority = selectedPriority;
+            event.commit();
+        }
+    }
+
+    private static boolean isEnabled(EventType type) {
+        return type != null && type.isEnabled();
+    }
+
+    @Name("com.github.phantomthief.failover.WeightChange")
+    @Label("Failover Weight Change")
+    @Category("Failover")
+    @StackTrace(false)
+    static class WeightChangeEvent extends Event {
+        @Label("Failover")
+        String failover;
+        @Label("Resource")
+        String resource;
+        @Label("Old Weight")
+        double oldWeight;
+        @Label("New Weight")
+        double newWeight;
+        @Label("Min Weight")
+        double minWeight;
+        @Label("Max Weight")
+        double maxWeight;
+    }
+
+    @Name("com.github.phantomthief.failover.Down")
+    @Label("Failover Resource Down")
+    @Description("weight of the resource dropped to the min weight")
+    @Category("Failover")
+    @StackTrace(false)
+    static class DownEvent extends Event {
+        @Label("Failover")
+        String failover;
+        @Label("Resource")
+        String resource;
+        @Label("Old Weight")
+        double oldWeight;
+    }
+
+    @Name("com.github.phantomthief.failover.Recovered")
+    @Label("Failover Resource Recovered")
+    @Description("weight of the resource rose from the min weight")
+    @Category("Failover")
+    @StackTrace(false)
+    static class RecoveredEvent extends Event {
+        @Label("Failover")
+        String failover;
+        @Label("Resource")
+        String resource;
+        @Label("New Weight")
+        double newWeight;
+    }
+
+    @Name("com.github.phantomthief.failover.CheckExecuted")
+    @Label("Failover Health Check")
+    @Category("Failover")
+    @StackTrace(false)
+    static class CheckExecutedEvent extends Event {
+        @Label("Failover")
+        String failover;
+        @Label("Resource")
+        String resource;
+        @Label("Healthy")
+        boolean healthy;
+        @Label("Check Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long checkDuration;
+    }
+
+    @Name("com.github.phantomthief.failover.SelectionMiss")
+    @Label("Failover Selection Miss")
+    @Description("no available resource, null returned")
+    @Category("Failover")
+    @StackTrace(false)
+    static class SelectionMissEvent extends Event {
+        @Label("Failover")
+        String failover;
+        @Label("Exclusions")
+        int exclusions;
+    }
+
+    @Name("com.github.phantomthief.failover.GroupSwitch")
+    @Label("Failover Group Switch")
+    @Description("priority of the group the resource is selected from changed")
+    @Category("Failover")
+    @StackTrace(false)
+    static class GroupSwitchEvent extends Event {
+        @Label("Failover")
+        String failover;
+        @Label("Previous Priority")
+        int previousPriority;
+        @Label("Selected Priority")
+        int selectedPriority;
+    }
+}
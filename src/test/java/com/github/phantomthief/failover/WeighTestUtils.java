@@ -1,5 +1,12 @@
 package com.github.phantomthief.failover;
 
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
 /**
  * @author w.vela
  * Created on 2019-01-04.
@@ -12,6 +19,19 @@ public class WeighTestUtils {
         return between((double) a / b, (double) ratio - OFFSET, (double) ratio + OFFSET);
     }
 
+    /**
+     * 轮询等待条件成立，超时以后让测试失败，用来代替固定时长的sleep。
+     */
+    public static void waitUntil(BooleanSupplier condition, Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                fail("condition not satisfied in " + timeout);
+            }
+            sleepUninterruptibly(5, MILLISECONDS);
+        }
+    }
+
     private static boolean between(double k, double min, double max) {
         return min <= k && k <= max;
     }
@@ -0,0 +1,88 @@
+package com.github.phantomthief.failover.impl;
+
+import static java.util.Collections.singleton;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.failover.impl.CircuitBreakerWeightFunction.SlidingWindow;
+
+public class CircuitBreakerWeightFunctionTest {
+
+    @Test
+    public void testSlidingWindow() {
+        SlidingWindow window = new SlidingWindow(4);
+        assertEquals(0, window.failureRate());
+        window.record(false);
+        window.record(true);
+        assertEquals(2, window.total());
+        assertEquals(0.5, window.failureRate());
+        window.record(true);
+        window.record(true);
+        window.record(true);
+        assertEquals(4, window.total());
+        assertEquals(0, window.failureRate());
+        for (int i = 0; i < 3; i++) {
+            window.record(false);
+        }
+        assertEquals(0.75, window.failureRate());
+    }
+
+    @Test
+    public void testOpenAndClose() {
+        CircuitBreakerWeightFunction<String> f = new CircuitBreakerWeightFunction<>(10, 4, 0.5, 0.1, 3);
+        // not enough calls
+        f.onResult(false, "R1");
+        assertEquals(1, f.fail(1, 0, 0, 1, "R1"));
+        for (int i = 0; i < 5; i++) {
+            f.onResult(true, "R1");
+        }
+        f.onResult(false, "R1");
+        // 2 of 7 failed
+        assertEquals(1, f.fail(1, 0, 0, 1, "R1"));
+        for (int i = 0; i < 4; i++) {
+            f.onResult(false, "R1");
+        }
+        // 6 of 10 failed
+        assertEquals(0, f.fail(1, 0, 0, 1, "R1"));
+        assertTrue(f.needCheck(1, 0, 0, 0, "R1"));
+
+        // probe success, half open
+        f.onResult(true, "R1");
+        assertEquals(0.1, f.success(1, 0, 0, 0, "R1"));
+        assertFalse(f.needCheck(1, 0, 0, 0.1, "R1"));
+        f.onResult(true, "R1");
+        assertEquals(0.1, f.success(1, 0, 0, 0.1, "R1"));
+        f.onResult(true, "R1");
+        assertEquals(0.1, f.success(1, 0, 0, 0.1, "R1"));
+        f.onResult(true, "R1");
+        assertEquals(1, f.success(1, 0, 0, 0.1, "R1"));
+
+        // fail in half open
+        f.onResult(false, "R2");
+        assertEquals(0, f.fail(1, 0, 0, 0.1, "R2"));
+    }
+
+    @Test
+    public void testRemovedByManager() {
+        CircuitBreakerWeightFunction<String> f = new CircuitBreakerWeightFunction<>(10, 2, 0.5, 0.1, 3);
+        PriorityFailoverManager<String> manager = PriorityFailover.<String> newBuilder()
+                .addResource("R1")
+                .addResource("R2")
+                .weightFunction(f)
+                .buildManager();
+        try {
+            f.onResult(false, "R1");
+            f.onResult(false, "R1");
+            assertEquals(0, f.fail(1, 0, 0, 1, "R1"));
+
+            manager.update(null, singleton("R1"));
+            // the window of R1 is dropped, a re-added R1 starts from an empty window
+            assertEquals(1, f.fail(1, 0, 0, 1, "R1"));
+        } finally {
+            manager.getFailover().close();
+        }
+    }
+}
@@ -100,6 +100,26 @@ class ComboFailoverTest {
         });
     }
 
+    @Test
+    void testReport() {
+        WeightFailover<String> failover1 = WeightFailover.<String> newGenericBuilder()
+                .checker(it -> 0.0)
+                .build(of("test1", "test2"));
+        WeightFailover<String> failover2 = WeightFailover.<String> newGenericBuilder()
+                .checker(it -> 0.0)
+                .build(of("test2", "test3"));
+        ComboFailover<String> combo = ComboFailover.<String> builder()
+                .add(failover1)
+                .add(failover2)
+                .build();
+        combo.report(of("test1"), of("test2", "test3"));
+        assertEquals(100, failover1.currentWeight("test1"));
+        assertEquals(95, failover1.currentWeight("test2"));
+        assertEquals(95, failover2.currentWeight("test2"));
+        assertEquals(95, failover2.currentWeight("test3"));
+        combo.close();
+    }
+
     private double check(String value) {
         logger.info("check:{}", value);
         return 0.5D;
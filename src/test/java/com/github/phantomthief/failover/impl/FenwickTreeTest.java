@@ -0,0 +1,67 @@
+package com.github.phantomthief.failover.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.Test;
+
+class FenwickTreeTest {
+
+    @Test
+    void testSearch() {
+        FenwickTree tree = new FenwickTree(new double[] {1, 0, 2, 3});
+        assertEquals(0, tree.search(0));
+        assertEquals(0, tree.search(0.99));
+        assertEquals(2, tree.search(1));
+        assertEquals(2, tree.search(2.99));
+        assertEquals(3, tree.search(3));
+        assertEquals(3, tree.search(5.99));
+        assertEquals(4, tree.search(6));
+
+        tree.add(1, 5);
+        tree.add(3, -3);
+        assertEquals(1, tree.search(1));
+        assertEquals(2, tree.search(6));
+        assertEquals(4, tree.search(8));
+
+        assertEquals(0, new FenwickTree(new double[0]).search(0));
+    }
+
+    @Test
+    void testRandom() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int size = 1; size < 100; size++) {
+            double[] weights = new double[size];
+            for (int i = 0; i < size; i++) {
+                weights[i] = random.nextInt(3) == 0 ? 0 : random.nextDouble(100);
+            }
+            FenwickTree tree = new FenwickTree(weights);
+            for (int i = 0; i < size; i++) {
+                int index = random.nextInt(size);
+                double newWeight = random.nextInt(3) == 0 ? 0 : random.nextDouble(100);
+                tree.add(index, newWeight - weights[index]);
+                weights[index] = newWeight;
+            }
+            double total = 0;
+            for (double w : weights) {
+                total += w;
+            }
+            for (int i = 0; i < 100 && total > 0; i++) {
+                double value = random.nextDouble(total);
+                assertEquals(linearSearch(weights, value), tree.search(value));
+            }
+        }
+    }
+
+    private static int linearSearch(double[] weights, double value) {
+        double x = 0;
+        for (int i = 0; i < weights.length; i++) {
+            x += weights[i];
+            if (value < x) {
+                return i;
+            }
+        }
+        return weights.length;
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.phantomthief.failover.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyWeightFunctionTest {
+
+    @Test
+    public void testUpdateLatency() {
+        LatencyWeightFunction<String> f = new LatencyWeightFunction<>(Duration.ofMillis(10),
+                Duration.ofNanos(100), 0.05);
+        // peak
+        assertEquals(1000, f.updateLatency(0, 0, 1000));
+        assertEquals(2000, f.updateLatency(1000, 0, 2000));
+        // decay
+        assertEquals(2000, f.updateLatency(2000, 0, 1000), 0.001);
+        assertEquals(1000 + 1000 * Math.exp(-1), f.updateLatency(2000, 100, 1000), 0.001);
+        assertEquals(1000, f.updateLatency(2000, Long.MAX_VALUE, 1000), 0.001);
+    }
+
+    @Test
+    public void testSuccess() {
+        LatencyWeightFunction<String> f = new LatencyWeightFunction<>(Duration.ofNanos(1000));
+        assertEquals(0.51, f.success(1, 0, 0, 0.5, "R1", 500), 0.001);
+        assertEquals(1, f.success(1, 0, 0, 1, "R1", 1000));
+        assertEquals(0.5, f.success(1, 0, 0, 1, "R1", 2000));
+        assertEquals(0.05, f.success(1, 0, 0, 1, "R1", 1000000));
+        // increase gradually under the limit
+        assertEquals(0.3, f.success(1, 0, 0, 0.29, "R1", 2000), 0.001);
+        // down resources recover as RatioWeightFunction
+        assertEquals(0.05, f.success(1, 0, 0, 0, "R1", 1000000), 0.001);
+        assertEquals(0.1, f.success(1, 0, 0, 0, "R1", 500), 0.001);
+    }
+
+    @Test
+    public void testIllegalArgs() {
+        assertThrows(IllegalArgumentException.class, () -> new LatencyWeightFunction<>(Duration.ZERO));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LatencyWeightFunction<>(Duration.ofMillis(1), Duration.ZERO, 0.05));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LatencyWeightFunction<>(Duration.ofMillis(1), Duration.ofSeconds(1), 0));
+    }
+}
@@ -10,6 +10,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
@@ -405,6 +406,40 @@ class PartitionFailoverTest<T> {
         failover.close();
     }
 
+    @Test
+    public void testMetrics() {
+        PartitionFailover<Res> failover = PartitionFailoverBuilder.<Res> newBuilder()
+                .checker(r -> 1.0)
+                .corePartitionSize(2)
+                .metrics(true)
+                .build(Arrays.asList(r0, r1, r2, r3, r4));
+        List<Res> partition = failover.getAvailable();
+        for (int i = 0; i < 20; i++) {
+            Res res = failover.getOneAvailable();
+            failover.success(res, 100);
+        }
+        Res downRes = partition.get(0);
+        failover.getOneAvailableExclude(Collections.singletonList(partition.get(1)));
+        failover.down(downRes);
+
+        long[] counts = new long[3];
+        failover.visitMetrics((res, metrics) -> {
+            counts[0] += metrics.getPicks();
+            counts[1] += metrics.getSuccesses();
+            counts[2] += metrics.getLatencyCount();
+            if (!partition.contains(res)) {
+                // the replacement is not counted as a pick
+                assertEquals(0, metrics.getPicks());
+            }
+        });
+        assertEquals(21, counts[0]);
+        assertEquals(20, counts[1]);
+        assertEquals(20, counts[2]);
+        assertEquals(1, failover.getMetrics(downRes).getDowns());
+        assertEquals(0, failover.getMetrics(downRes).getInFlight());
+        failover.close();
+    }
+
     @Test
     public void testNoSupportedMethod() {
         PartitionFailover<Res> failover = PartitionFailoverBuilder.<Res> newBuilder()
@@ -4,7 +4,12 @@ import static com.github.phantomthief.failover.impl.PriorityGroupManagerTest.cou
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonMap;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -24,6 +29,51 @@ class PriorityFailoverManagerTest {
     private Object o1 = "o1";
     private Object o2 = "o2";
 
+    @Test
+    public void testSlowStart() {
+        PriorityFailoverManager<Object> manager = PriorityFailover.newBuilder()
+                .addResource(o0, 100)
+                .addResource(o1, 100)
+                .slowStart(Duration.ofSeconds(10), 0.1)
+                .buildManager();
+        assertEquals(0, manager.getFailover().getResourcesMap().get(o0).warmUpStartNanos);
+
+        manager.update(singletonMap(o2, new ResConfig(100)), null);
+        PriorityFailover<Object> failover = manager.getFailover();
+        long warmUpStart = failover.getResourcesMap().get(o2).warmUpStartNanos;
+        assertNotEquals(0, warmUpStart);
+        assertEquals(0, failover.getResourcesMap().get(o0).warmUpStartNanos);
+
+        int c2 = 0;
+        int totalCount = 10000;
+        for (int i = 0; i < totalCount; i++) {
+            if (failover.getOneAvailable() == o2) {
+                c2++;
+            }
+        }
+        // about 10 / (100 + 100 + 10)
+        assertEquals(0.05, 1.0 * c2 / totalCount, 0.03);
+
+        // the warm up state is kept after another update
+        manager.update(singletonMap(o1, new ResConfig(50)), null);
+        assertEquals(warmUpStart, manager.getFailover().getResourcesMap().get(o2).warmUpStartNanos);
+    }
+
+    @Test
+    public void testMetrics() {
+        PriorityFailoverManager<Object> manager = PriorityFailover.newBuilder()
+                .addResource(o0, 100)
+                .metrics(true)
+                .buildManager();
+        manager.getFailover().success(o0, 100);
+        ResourceMetrics metrics = manager.getFailover().getMetrics(o0);
+
+        manager.update(singletonMap(o1, new ResConfig(100)), null);
+        assertSame(metrics, manager.getFailover().getMetrics(o0));
+        assertEquals(1, manager.getFailover().getMetrics(o0).getSuccesses());
+        assertEquals(0, manager.getFailover().getMetrics(o1).getSuccesses());
+    }
+
     @Test
     public void testUpdate() {
         PriorityFailover<Object> failover = PriorityFailover.newBuilder()
@@ -140,6 +190,62 @@ class PriorityFailoverManagerTest {
         assertEquals(10, manager.getFailover().getResourcesMap().get(o0).currentWeight);
     }
 
+    @Test
+    public void testIncrementalUpdate() {
+        Object o3 = "o3";
+        PriorityFailoverManager<Object> manager = PriorityFailover.newBuilder()
+                .addResource(o0, 100, 0, 0)
+                .addResource(o1, 100, 0, 0)
+                .addResource(o2, 100, 0, 1)
+                .concurrencyControl(true)
+                .buildManager();
+        PriorityFailover<Object> old = manager.getFailover();
+        old.fail(o0);
+        old.incrConcurrency(o1);
+        old.fail(o2);
+        double o2Weight = old.getResourceStatus(o2).getCurrentWeight();
+
+        // only priority 0 is touched
+        manager.update(singletonMap(o3, new ResConfig(100, 0, 0)), null);
+        PriorityFailover<Object> failover = manager.getFailover();
+        assertNotSame(old, failover);
+        assertSame(old.getGroups()[1], failover.getGroups()[1]);
+        assertSame(old.getResourcesMap().get(o2), failover.getResourcesMap().get(o2));
+        assertEquals(o2Weight, failover.getResourceStatus(o2).getCurrentWeight());
+
+        assertNotSame(old.getGroups()[0], failover.getGroups()[0]);
+        assertEquals(3, failover.getGroups()[0].resources.length);
+        assertEquals(old.getResourceStatus(o0).getCurrentWeight(),
+                failover.getResourceStatus(o0).getCurrentWeight());
+        assertEquals(1, failover.getResourceStatus(o1).getConcurrency());
+        // the call started on the old failover finishes on the new one
+        failover.decrConcurrency(o1);
+        assertEquals(0, failover.getResourceStatus(o1).getConcurrency());
+
+        // unchanged resources of a rebuilt group are reused, results reported to the old failover are kept
+        assertSame(old.getResourcesMap().get(o1), failover.getResourcesMap().get(o1));
+        old.fail(o1);
+        assertEquals(old.getResourceStatus(o1).getCurrentWeight(),
+                failover.getResourceStatus(o1).getCurrentWeight());
+        assertEquals(100 + 100 + 100 - 2 * (100 - failover.getResourceStatus(o1).getCurrentWeight()),
+                failover.getGroups()[0].groupWeightInfo.totalCurrentWeight, 0.001);
+
+        // same config is not a change
+        manager.update(singletonMap(o0, new ResConfig(100, 0, 0)), null);
+        assertSame(failover.getGroups()[0], manager.getFailover().getGroups()[0]);
+
+        // moving o2 to priority 0 touches both groups
+        failover = manager.getFailover();
+        manager.update(singletonMap(o2, new ResConfig(100, 0, 0)), null);
+        assertEquals(1, manager.getFailover().getGroups().length);
+        assertEquals(4, manager.getFailover().getGroups()[0].resources.length);
+        assertEquals(o2Weight, manager.getFailover().getResourceStatus(o2).getCurrentWeight());
+
+        manager.update(null, singleton(o3));
+        assertEquals(3, manager.getFailover().getGroups()[0].resources.length);
+        assertNull(manager.getFailover().getResourceStatus(o3));
+    }
+
     @Test
     public void testAutoPriority() {
         PriorityFailoverManager<Object> manager = PriorityFailover.newBuilder()
@@ -1,6 +1,8 @@
 package com.github.phantomthief.failover.impl;
 
+import static com.github.phantomthief.failover.WeighTestUtils.waitUntil;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
@@ -13,9 +15,15 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -34,6 +42,7 @@ class PriorityFailoverTest {
     private Object o0 = "o0";
     private Object o1 = "o1";
     private Object o2 = "o2";
+    private Object o3 = "o3";
 
     @Test
     public void testEmpty() {
@@ -302,6 +311,425 @@ class PriorityFailoverTest {
         assertEquals(0, failover.getResourceStatus(one).getConcurrency());
     }
 
+    @Test
+    public void testConcurrencyCounter() throws Exception {
+        PriorityFailover.Concurrency concurrency = new PriorityFailover.Concurrency();
+        concurrency.decr();
+        assertEquals(0, concurrency.get());
+        concurrency.incr();
+        assertEquals(1, concurrency.get());
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    concurrency.incr();
+                    concurrency.decr();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, concurrency.get());
+        concurrency.reset();
+        assertEquals(0, concurrency.get());
+    }
+
+    @Test
+    public void testPowerOfTwoChoices() {
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100)
+                .addResource(o1, 100)
+                // different max weights, so the candidates are sampled randomly instead of round robin
+                .addResource(o2, 99.99)
+                .concurrencyControl(true)
+                .powerOfTwoChoices(true)
+                .build();
+        for (int i = 0; i < 10; i++) {
+            failover.incrConcurrency(o0);
+        }
+        int c0 = 0;
+        int totalCount = 10000;
+        for (int i = 0; i < totalCount; i++) {
+            Object o = failover.getOneAvailable();
+            if (o == o0) {
+                c0++;
+            }
+            failover.success(o);
+        }
+        // o0 is only selected when both candidates are o0
+        assertEquals(1.0 / 9, 1.0 * c0 / totalCount, 0.03);
+        assertEquals(10, failover.getResourceStatus(o0).getConcurrency());
+
+        for (int i = 0; i < totalCount; i++) {
+            Object o = failover.getOneAvailableExclude(Collections.singletonList(o1));
+            assertTrue(o == o0 || o == o2);
+            failover.success(o);
+        }
+        failover.close();
+    }
+
+    @Test
+    public void testLatencyWeightFunction() {
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100)
+                .addResource(o1, 100)
+                .weightFunction(new LatencyWeightFunction<>(Duration.ofMillis(10)))
+                .build();
+        failover.success(o0, TimeUnit.MILLISECONDS.toNanos(5));
+        failover.success(o1, TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(100, failover.getResourceStatus(o0).getCurrentWeight(), 0.001);
+        assertEquals(25, failover.getResourceStatus(o1).getCurrentWeight(), 0.001);
+
+        int c0 = 0;
+        int totalCount = 10000;
+        for (int i = 0; i < totalCount; i++) {
+            if (failover.getOneAvailable() == o0) {
+                c0++;
+            }
+        }
+        assertEquals(0.8, 1.0 * c0 / totalCount, 0.03);
+
+        // without latency, recover as RatioWeightFunction
+        failover.success(o1);
+        assertEquals(26, failover.getResourceStatus(o1).getCurrentWeight(), 0.001);
+        failover.close();
+    }
+
+    @Test
+    public void testAdaptiveConcurrencyLimit() {
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100)
+                .addResource(o1, 100)
+                .concurrencyControl(true)
+                .adaptiveConcurrencyLimit(2, 1, 10, Duration.ofMillis(10))
+                .build();
+        assertEquals(2, failover.getResourceStatus(o0).getConcurrencyLimit());
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(failover.getOneAvailable());
+        }
+        // all resources reach the limit
+        assertNull(failover.getOneAvailable());
+        assertEquals(2, failover.getResourceStatus(o0).getConcurrency());
+        assertEquals(2, failover.getResourceStatus(o1).getConcurrency());
+
+        // multiplicative decrease
+        failover.fail(o0);
+        assertEquals(1, failover.getResourceStatus(o0).getConcurrencyLimit());
+        assertNull(failover.getOneAvailable());
+
+        failover.success(o1);
+        assertEquals(o1, failover.getOneAvailable());
+        // o0 still reaches its limit
+        assertNull(failover.getOneAvailableExclude(Collections.singletonList(o1)));
+
+        // additive increase
+        for (int i = 0; i < 20; i++) {
+            failover.success(o1);
+            failover.getOneAvailableExclude(Collections.singletonList(o0));
+        }
+        assertTrue(failover.getResourceStatus(o1).getConcurrencyLimit() > 2);
+
+        // too slow
+        int limit = failover.getResourceStatus(o1).getConcurrencyLimit();
+        failover.success(o1, TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(failover.getResourceStatus(o1).getConcurrencyLimit() < limit);
+        failover.close();
+    }
+
+    @Test
+    public void testCircuitBreakerWeightFunction() {
+        AtomicInteger weightChanges = new AtomicInteger();
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100)
+                .addResource(o1, 100)
+                .weightFunction(new CircuitBreakerWeightFunction<>())
+                .weightListener(new WeightListener<Object>() {
+                    @Override
+                    public void onSuccess(double maxWeight, double minWeight, int priority, double currentOldWeight,
+                            double currentNewWeight, Object resource) {
+                        weightChanges.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onFail(double maxWeight, double minWeight, int priority, double currentOldWeight,
+                            double currentNewWeight, Object resource) {
+                        weightChanges.incrementAndGet();
+                    }
+                })
+                .checker(o -> true)
+                .checkDuration(Duration.ofMillis(10))
+                .build();
+        // sporadic errors
+        for (int i = 0; i < 1000; i++) {
+            if (i % 100 == 0) {
+                failover.fail(o0);
+            } else {
+                failover.success(o0);
+            }
+        }
+        assertEquals(0, weightChanges.get());
+        assertEquals(100, failover.getResourceStatus(o0).getCurrentWeight());
+
+        for (int i = 0; i < 50; i++) {
+            failover.fail(o0);
+        }
+        assertEquals(1, weightChanges.get());
+        assertEquals(0, failover.getResourceStatus(o0).getCurrentWeight());
+
+        // recovered by the check task to half open
+        waitUntil(() -> failover.getResourceStatus(o0).getCurrentWeight() > 0, Duration.ofSeconds(5));
+        assertEquals(10, failover.getResourceStatus(o0).getCurrentWeight(), 0.001);
+        for (int i = 0; i < 10; i++) {
+            failover.success(o0);
+        }
+        assertEquals(100, failover.getResourceStatus(o0).getCurrentWeight());
+        failover.close();
+    }
+
+    @Test
+    public void testSlowStart() {
+        try (PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100)
+                .addResource(o1, 100)
+                .slowStart(Duration.ofMillis(500), 0.1)
+                .build()) {
+            failover.down(o0);
+            for (int i = 0; i < 100; i++) {
+                failover.success(o0);
+            }
+            assertEquals(100, failover.getResourceStatus(o0).getCurrentWeight());
+
+            // o0 is warming up, it gets much less than its share of 0.5
+            int c0 = 0;
+            int totalCount = 10000;
+            for (int i = 0; i < totalCount; i++) {
+                if (failover.getOneAvailable() == o0) {
+                    c0++;
+                }
+            }
+            assertTrue(1.0 * c0 / totalCount < 0.35, String.valueOf(c0));
+
+            awaitDist(failover, 100, 100, 0);
+        }
+    }
+
+    @Test
+    public void testParallelCheck() {
+        PriorityFailoverBuilder<Object> builder = PriorityFailover.newBuilder();
+        List<Object> resources = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            resources.add("p" + i);
+            builder.addResource(resources.get(i), 100, 0, 0, 0);
+        }
+        Object slow = resources.get(0);
+        Object broken = resources.get(1);
+        PriorityFailover<Object> failover = builder
+                .checker(o -> {
+                    Uninterruptibles.sleepUninterruptibly(o == slow ? 5000 : 200, TimeUnit.MILLISECONDS);
+                    if (o == broken) {
+                        throw new IllegalStateException();
+                    }
+                    return true;
+                })
+                .parallelCheck(10, Duration.ofMillis(500))
+                .checkDuration(Duration.ofMillis(10))
+                .startCheckTaskImmediately(true)
+                .build();
+        // the sequential check needs more than 5s + 18 * 200ms for the first round
+        waitUntil(() -> resources.stream()
+                .filter(res -> res != slow && res != broken)
+                .allMatch(res -> failover.getResourceStatus(res).getCurrentWeight() > 0), Duration.ofSeconds(3));
+        assertEquals(0, failover.getResourceStatus(slow).getCurrentWeight());
+        assertEquals(0, failover.getResourceStatus(broken).getCurrentWeight());
+        failover.close();
+    }
+
+    @Test
+    public void testParallelCheckIgnoringInterrupt() {
+        PriorityFailoverBuilder<Object> builder = PriorityFailover.newBuilder();
+        for (int i = 0; i < 10; i++) {
+            builder.addResource("p" + i, 100, 0, 0, 0);
+        }
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicInteger checkCount = new AtomicInteger();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>());
+        PriorityFailover<Object> failover = builder
+                .checker(o -> {
+                    checkCount.incrementAndGet();
+                    maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    try {
+                        // a blocking call that doesn't respond to the interrupt
+                        Uninterruptibles.awaitUninterruptibly(blocked);
+                        return true;
+                    } finally {
+                        active.decrementAndGet();
+                    }
+                })
+                .parallelCheck(3, Duration.ofMillis(20))
+                .checkWorkerExecutor(executor)
+                .checkDuration(Duration.ofMillis(10))
+                .startCheckTaskImmediately(true)
+                .build();
+        try {
+            waitUntil(() -> checkCount.get() == 3, Duration.ofSeconds(5));
+            // many rounds time out the stuck checks, but nothing new is submitted until they end
+            Uninterruptibles.sleepUninterruptibly(300, TimeUnit.MILLISECONDS);
+            assertEquals(3, checkCount.get());
+            assertEquals(3, executor.getLargestPoolSize());
+
+            blocked.countDown();
+            waitUntil(() -> failover.getResourcesMap().keySet().stream()
+                    .allMatch(res -> failover.getResourceStatus(res).getCurrentWeight() > 0), Duration.ofSeconds(5));
+            assertTrue(maxActive.get() <= 3, String.valueOf(maxActive.get()));
+        } finally {
+            failover.close();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncChecker() {
+        AtomicInteger checkCount = new AtomicInteger();
+        long start = System.nanoTime();
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100, 0, 0, 0)
+                .addResource(o1, 100, 0, 0, 0)
+                .addResource(o2, 100, 0, 0, 0)
+                .asyncChecker(o -> {
+                    checkCount.incrementAndGet();
+                    if (o == o0) {
+                        return CompletableFuture.completedFuture(true);
+                    } else if (o == o1) {
+                        CompletableFuture<Boolean> f = new CompletableFuture<>();
+                        f.completeExceptionally(new IllegalStateException());
+                        return f;
+                    } else {
+                        // never complete
+                        return new CompletableFuture<>();
+                    }
+                }, Duration.ofMillis(100))
+                .checkDuration(Duration.ofMillis(10))
+                .startCheckTaskImmediately(true)
+                .build();
+        waitUntil(() -> failover.getResourceStatus(o0).getCurrentWeight() > 0, Duration.ofSeconds(5));
+        // each round waits for the timeout of o2 before the next one starts
+        waitUntil(() -> checkCount.get() > 3, Duration.ofSeconds(5));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0, failover.getResourceStatus(o1).getCurrentWeight());
+        assertEquals(0, failover.getResourceStatus(o2).getCurrentWeight());
+        failover.close();
+    }
+
+    @Test
+    public void testAsyncCheckerReturnsNull() {
+        AtomicInteger checkCount = new AtomicInteger();
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100, 0, 0, 0)
+                .asyncChecker(o -> checkCount.incrementAndGet() == 1 ? null
+                                                                      : CompletableFuture.completedFuture(true),
+                        Duration.ofMillis(100))
+                .checkDuration(Duration.ofMillis(10))
+                .startCheckTaskImmediately(true)
+                .build();
+        // the null future is a failed check and the next round still runs
+        waitUntil(() -> failover.getResourceStatus(o0).getCurrentWeight() > 0, Duration.ofSeconds(5));
+        assertTrue(checkCount.get() >= 2);
+        failover.close();
+    }
+
+    @Test
+    public void testAsyncCheckerThrows() {
+        AtomicInteger checkCount = new AtomicInteger();
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100, 0, 0, 0)
+                .asyncChecker(o -> {
+                    if (checkCount.incrementAndGet() == 1) {
+                        throw new IllegalStateException();
+                    }
+                    return CompletableFuture.completedFuture(true);
+                }, Duration.ofMillis(100))
+                .checkDuration(Duration.ofMillis(10))
+                .startCheckTaskImmediately(true)
+                .build();
+        waitUntil(() -> failover.getResourceStatus(o0).getCurrentWeight() > 0, Duration.ofSeconds(5));
+        assertTrue(checkCount.get() >= 2);
+        failover.close();
+    }
+
+    @Test
+    public void testMetrics() {
+        try (PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100, 0, 0, 100)
+                .addResource(o1, 100, 0, 1, 100)
+                .metrics(true)
+                .build()) {
+            // the unhealthy priority group may fall over to o1 randomly, so exclude it
+            List<Object> excludeO1 = Collections.singletonList(o1);
+            for (int i = 0; i < 10; i++) {
+                Object o = failover.getOneAvailableExclude(excludeO1);
+                assertEquals(o0, o);
+                if (i < 7) {
+                    failover.success(o, 2000);
+                } else {
+                    failover.fail(o);
+                }
+            }
+            failover.getOneAvailableExclude(excludeO1);
+            failover.down(o0);
+            failover.getOneAvailable();
+            failover.success(o1);
+
+            ResourceMetrics m0 = failover.getMetrics(o0);
+            assertEquals(11, m0.getPicks());
+            assertEquals(7, m0.getSuccesses());
+            assertEquals(3, m0.getFailures());
+            assertEquals(1, m0.getDowns());
+            assertEquals(0, m0.getInFlight());
+            assertEquals(7, m0.getLatencyCount());
+            assertEquals(2048, m0.getLatencyPercentileNanos(0.99));
+            assertEquals(0, m0.getRecoveries());
+            ResourceMetrics m1 = failover.getMetrics(o1);
+            assertEquals(1, m1.getPicks());
+            assertEquals(1, m1.getSuccesses());
+            assertEquals(0, m1.getLatencyCount());
+
+            failover.success(o0);
+            assertEquals(1, m0.getRecoveries());
+
+            List<Object> visited = new ArrayList<>();
+            failover.visitMetrics((res, metrics) -> visited.add(res));
+            assertEquals(Arrays.asList(o0, o1), visited);
+            assertNull(failover.getMetrics(o2));
+        }
+        try (PriorityFailover<Object> noMetrics = PriorityFailover.newBuilder().addResource(o0).build()) {
+            assertNull(noMetrics.getMetrics(o0));
+            noMetrics.visitMetrics((res, metrics) -> fail());
+        }
+    }
+
+    @Test
+    public void testNoGroupSwitchTrackingWhenDisabled() {
+        // the Java 8 FailoverEvents is used when the tests run against target/classes
+        assertFalse(FailoverEvents.isGroupSwitchEnabled());
+        try (PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100, 0, 0, 100)
+                .addResource(o1, 100, 0, 1, 100)
+                .build()) {
+            failover.down(o0);
+            for (int i = 0; i < 100; i++) {
+                assertSame(o1, failover.getOneAvailable());
+            }
+            // the shared field is never written on the selection path
+            assertEquals(0, failover.lastSelectedPriority);
+        }
+    }
+
     @Test
     public void testDown() {
         PriorityFailover<Object> failover = PriorityFailover.newBuilder()
@@ -369,6 +797,130 @@ class PriorityFailoverTest {
         failover.close();
     }
 
+    @Test
+    public void testRepeatedDown() {
+        AtomicInteger failCount = new AtomicInteger();
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100, 0, 0, 100)
+                .addResource(o1, 100, 0, 0, 100)
+                .weightListener(new WeightListener<Object>() {
+                    @Override
+                    public void onFail(double maxWeight, double minWeight, int priority,
+                            double currentOldWeight, double currentNewWeight, Object resource) {
+                        failCount.incrementAndGet();
+                    }
+                })
+                .build();
+        failover.down(o0);
+        assertEquals(1, failCount.get());
+        // already at the min weight, nothing changes
+        failover.down(o0);
+        failover.down(o0);
+        assertEquals(1, failCount.get());
+        assertEquals(0.0, failover.getResourceStatus(o0).getCurrentWeight());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(o1, failover.getOneAvailable());
+        }
+        failover.close();
+    }
+
+    @Test
+    public void testReport() {
+        AtomicInteger listenerCount = new AtomicInteger();
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100, 0, 0, 50)
+                .addResource(o1, 100, 0, 0, 100)
+                .addResource(o2, 100, 0, 1, 100)
+                .weightFunction(new SimpleWeightFunction<>(0.5, 0.01))
+                .weightListener(new WeightListener<Object>() {
+                    @Override
+                    public void onSuccess(double maxWeight, double minWeight, int priority,
+                            double currentOldWeight, double currentNewWeight, Object resource) {
+                        listenerCount.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onFail(double maxWeight, double minWeight, int priority,
+                            double currentOldWeight, double currentNewWeight, Object resource) {
+                        listenerCount.incrementAndGet();
+                    }
+                })
+                .build();
+        failover.report(Arrays.asList(o0, new Object()), Arrays.asList(o1, o1, o2));
+        assertEquals(51.0, failover.getResourceStatus(o0).getCurrentWeight());
+        assertEquals(0.0, failover.getResourceStatus(o1).getCurrentWeight());
+        assertEquals(50.0, failover.getResourceStatus(o2).getCurrentWeight());
+        assertEquals(4, listenerCount.get());
+
+        PriorityFailover.GroupInfo<Object>[] groups = failover.getGroups();
+        assertEquals(51.0, groups[0].groupWeightInfo.totalCurrentWeight);
+        assertEquals(50.0, groups[1].groupWeightInfo.totalCurrentWeight);
+
+        // nothing changed
+        failover.report(Collections.emptyList(), Collections.singletonList(o1));
+        assertEquals(4, listenerCount.get());
+        failover.close();
+    }
+
+    @Test
+    public void testIncrementalGroupWeight() throws Exception {
+        PriorityFailoverBuilder<Object> builder = PriorityFailover.newBuilder()
+                .weightFunction(new SimpleWeightFunction<>(0.3, 0.07));
+        List<Object> resources = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Object o = "r" + i;
+            resources.add(o);
+            builder.addResource(o, 100, 0, i % 2, 100);
+        }
+        PriorityFailover<Object> failover = builder.build();
+        PriorityFailover.GroupInfo<Object>[] groups = failover.getGroups();
+        assertTrue(groups[0].groupWeightInfo.roundRobin);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 10000; i++) {
+                    Object o = resources.get(random.nextInt(resources.size()));
+                    if (random.nextInt(10) == 0) {
+                        failover.fail(o);
+                    } else {
+                        failover.success(o);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (PriorityFailover.GroupInfo<Object> group : groups) {
+            double sum = 0;
+            int notFull = 0;
+            for (int i = 0; i < group.resources.length; i++) {
+                PriorityFailover.ResInfo<Object> ri = group.resources[i];
+                assertEquals(ri.currentWeight, group.currentWeight(i));
+                sum += ri.currentWeight;
+                if (ri.currentWeight < ri.maxWeight) {
+                    notFull++;
+                }
+            }
+            assertEquals(sum, group.groupWeightInfo.totalCurrentWeight, 0.0001);
+            assertEquals(notFull, group.groupWeightInfo.notFullCount);
+        }
+
+        for (Object o : resources) {
+            for (int i = 0; i < 20; i++) {
+                failover.success(o);
+            }
+        }
+        for (PriorityFailover.GroupInfo<Object> group : groups) {
+            assertTrue(group.groupWeightInfo.roundRobin);
+            assertEquals(group.totalMaxWeight, group.groupWeightInfo.totalCurrentWeight);
+        }
+        failover.close();
+    }
+
     @Test
     public void testNoRes() {
         PriorityFailover<Object> failover = PriorityFailover.newBuilder()
@@ -447,6 +999,30 @@ class PriorityFailoverTest {
         assertEquals(w2 / (w0 + w1 + w2), 1.0 * c2 / totalCount, 0.03);
     }
 
+    /**
+     * 等待异步生效的权重（比如异步重建的alias表、健康检查）反映到选择的分布上。
+     */
+    private void awaitDist(PriorityFailover<Object> failover, double w0, double w1, double w2) {
+        waitUntil(() -> {
+            int c0 = 0, c1 = 0, c2 = 0;
+            int totalCount = 10000;
+            for (int i = 0; i < totalCount; i++) {
+                Object o = failover.getOneAvailable();
+                if (o == o0) {
+                    c0++;
+                } else if (o == o1) {
+                    c1++;
+                } else {
+                    c2++;
+                }
+            }
+            double total = w0 + w1 + w2;
+            return Math.abs(w0 / total - 1.0 * c0 / totalCount) < 0.03
+                    && Math.abs(w1 / total - 1.0 * c1 / totalCount) < 0.03
+                    && Math.abs(w2 / total - 1.0 * c2 / totalCount) < 0.03;
+        }, Duration.ofSeconds(5));
+    }
+
 
 
     @Test
@@ -491,6 +1067,140 @@ class PriorityFailoverTest {
         failover.close();
     }
 
+    @Test
+    public void testDistForFenwickTree() throws Exception {
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100, 0, 0, 100)
+                .addResource(o1, 100, 0, 0, 100)
+                .addResource(o2, 100, 0, 0, 50)
+                .weightFunction(new SimpleWeightFunction<>(0.5, 0.01))
+                .fenwickTreeThreshold(2)
+                .build();
+        assertNotNull(failover.getGroups()[0].fenwickTree);
+        testDist(failover, 100, 100, 50);
+        failover.fail(o0);
+        testDist(failover, 50, 100, 50);
+        failover.down(o1);
+        testDist(failover, 50, 0, 50);
+        failover.close();
+    }
+
+    @Test
+    public void testDistForAsyncAliasMethod() throws Exception {
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100, 0, 0, 100)
+                .addResource(o1, 100, 0, 0, 100)
+                .addResource(o2, 100, 0, 0, 50)
+                .weightFunction(new SimpleWeightFunction<>(0.5, 0.01))
+                .aliasMethodThreshold(1)
+                .asyncAliasMethod(Duration.ofMillis(1), Duration.ofSeconds(10))
+                .build();
+        assertNotNull(failover.getGroups()[0].asyncAliasTable);
+        testDist(failover, 100, 100, 50);
+        failover.fail(o0);
+        awaitDist(failover, 50, 100, 50);
+        failover.down(o1);
+        // a stale table never returns a down resource
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(failover.getOneAvailable() != o1);
+        }
+        awaitDist(failover, 50, 0, 50);
+        failover.close();
+
+        failover = PriorityFailover.newBuilder()
+                .addResource(o0, 100, 0, 0, 100)
+                .addResource(o1, 100, 0, 0, 50)
+                .aliasMethodThreshold(1)
+                .asyncAliasMethod(Duration.ofHours(1), Duration.ofMillis(1))
+                .build();
+        testDist(failover, 100, 50, 0);
+        failover.fail(o1);
+        // the table is never rebuilt, once it is too stale the exact weights are used
+        awaitDist(failover, 100, 25, 0);
+        failover.close();
+    }
+
+    @Test
+    public void testDistWithExclusions() {
+        PriorityFailover<Object> failover = PriorityFailover.newBuilder()
+                .addResource(o0, 1000, 0, 0, 1000)
+                .addResource(o1, 100, 0, 0, 100)
+                .addResource(o2, 100, 0, 0, 50)
+                .addResource(o3, 100, 0, 1, 100)
+                .build();
+        // o0 takes most of the weight, so the rejection sampling usually fails and falls back to a full scan
+        List<Object> exclusions = Arrays.asList(o0, o3, o0);
+        int c1 = 0;
+        int totalCount = 10000;
+        for (int i = 0; i < totalCount; i++) {
+            Object o = failover.getOneAvailableExclude(exclusions);
+            assertTrue(o == o1 || o == o2);
+            if (o == o1) {
+                c1++;
+            }
+        }
+        assertEquals(100.0 / 150, 1.0 * c1 / totalCount, 0.03);
+
+        int c0 = 0;
+        for (int i = 0; i < totalCount; i++) {
+            Object o = failover.getOneAvailableExclude(Collections.singletonList(o2));
+            assertTrue(o == o0 || o == o1);
+            if (o == o0) {
+                c0++;
+            }
+        }
+        assertEquals(1000.0 / 1100, 1.0 * c0 / totalCount, 0.03);
+
+        assertNull(failover.getOneAvailableExclude(Arrays.asList(o0, o1, o2, o3)));
+        failover.close();
+    }
+
+    @Test
+    public void testRoundRobinFairness() throws Exception {
+        int resCount = 10;
+        PriorityFailoverBuilder<Object> builder = PriorityFailover.newBuilder();
+        for (int i = 0; i < resCount; i++) {
+            builder.addResource("r" + i, 100);
+        }
+        PriorityFailover<Object> failover = builder.build();
+        assertTrue(failover.getGroups()[0].groupWeightInfo.roundRobin);
+
+        ConcurrentHashMap<Object, LongAdder> counts = new ConcurrentHashMap<>();
+        Thread[] threads = new Thread[8];
+        int loop = 100000;
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < loop; i++) {
+                    counts.computeIfAbsent(failover.getOneAvailable(), k -> new LongAdder()).increment();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(resCount, counts.size());
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (LongAdder adder : counts.values()) {
+            min = Math.min(min, adder.sum());
+            max = Math.max(max, adder.sum());
+        }
+        // every stripe walks through all resources, so the skew is bounded by the stripe count
+        assertTrue(max - min <= failover.getGroups()[0].roundRobinCounter.stripes(), min + " " + max);
+        failover.close();
+    }
+
+    @Test
+    public void testRoundRobinStripesAllocatedOnContention() {
+        StripedRoundRobin counter = new StripedRoundRobin(3, 8);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i % 3, counter.next());
+        }
+        // no contention, only one stripe is allocated
+        assertEquals(1, counter.stripes());
+    }
+
     @Test
     public void testDistWithConCtrl() throws Exception {
         PriorityFailover<Object> failover = PriorityFailover.newBuilder()
@@ -0,0 +1,58 @@
+package com.github.phantomthief.failover.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class ResourceMetricsTest {
+
+    @Test
+    void testBucket() {
+        assertEquals(0, ResourceMetrics.bucketOf(0));
+        assertEquals(1, ResourceMetrics.bucketOf(1));
+        assertEquals(2, ResourceMetrics.bucketOf(2));
+        assertEquals(2, ResourceMetrics.bucketOf(3));
+        assertEquals(11, ResourceMetrics.bucketOf(1024));
+        assertEquals(ResourceMetrics.LATENCY_BUCKETS - 1, ResourceMetrics.bucketOf(Long.MAX_VALUE));
+        for (long latency : new long[] {1, 7, 1000, 123456789}) {
+            int bucket = ResourceMetrics.bucketOf(latency);
+            assertEquals(true, latency < ResourceMetrics.bucketUpperBoundNanos(bucket));
+            assertEquals(true, latency >= ResourceMetrics.bucketUpperBoundNanos(bucket - 1));
+        }
+    }
+
+    @Test
+    void testRecord() {
+        ResourceMetrics metrics = new ResourceMetrics();
+        assertEquals(0, metrics.getLatencyPercentileNanos(0.5));
+        for (int i = 0; i < 10; i++) {
+            metrics.recordPick();
+        }
+        for (int i = 0; i < 90; i++) {
+            metrics.recordSuccess(1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.recordSuccess(1_000_000);
+        }
+        metrics.recordSuccess(-1);
+        metrics.recordFailure();
+        metrics.recordDown();
+        metrics.recordRecovery();
+        assertEquals(10, metrics.getPicks());
+        assertEquals(101, metrics.getSuccesses());
+        assertEquals(1, metrics.getFailures());
+        assertEquals(1, metrics.getDowns());
+        assertEquals(1, metrics.getRecoveries());
+        // more results than picks
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(100, metrics.getLatencyCount());
+        assertEquals(90 * 1000 + 10 * 1_000_000, metrics.getLatencySumNanos());
+        assertEquals(90, metrics.getLatencyBucketCount(ResourceMetrics.bucketOf(1000)));
+        assertEquals(1024, metrics.getLatencyPercentileNanos(0.5));
+        assertEquals(1024, metrics.getLatencyPercentileNanos(0.9));
+        assertEquals(1 << 20, metrics.getLatencyPercentileNanos(0.99));
+        assertEquals(1 << 20, metrics.getLatencyPercentileNanos(1));
+        assertThrows(IllegalArgumentException.class, () -> metrics.getLatencyPercentileNanos(0));
+    }
+}
@@ -1,6 +1,7 @@
 package com.github.phantomthief.failover.impl;
 
 import static com.github.phantomthief.failover.WeighTestUtils.checkRatio;
+import static com.github.phantomthief.failover.WeighTestUtils.waitUntil;
 import static com.google.common.collect.ImmutableList.of;
 import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
 import static java.lang.System.currentTimeMillis;
@@ -13,13 +14,20 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -72,6 +80,109 @@ class WeightFailoverTest {
         System.out.println(result);
     }
 
+    @Test
+    void testAsyncChecker() {
+        List<String> original = Arrays.asList("1", "2", "3");
+        AtomicInteger checkCount = new AtomicInteger();
+        List<CompletableFuture<Boolean>> hangs = new CopyOnWriteArrayList<>();
+        WeightFailover<String> failover = WeightFailover.<String> newGenericBuilder()
+                .asyncChecker(obj -> {
+                    checkCount.incrementAndGet();
+                    if ("1".equals(obj)) {
+                        return CompletableFuture.completedFuture(true);
+                    } else {
+                        CompletableFuture<Boolean> hang = new CompletableFuture<>();
+                        hangs.add(hang);
+                        return hang;
+                    }
+                }, 0.5, 100, MILLISECONDS)
+                .checkDuration(10, MILLISECONDS)
+                .build(original);
+        failover.down("1");
+        failover.down("2");
+        sleepUninterruptibly(500, MILLISECONDS);
+        assertEquals(50, failover.currentWeight("1"));
+        assertEquals(0, failover.currentWeight("2"));
+        // the round waits for the timeout of "2"
+        assertTrue(checkCount.get() < 20);
+        assertTrue(hangs.get(0).isCancelled());
+        failover.close();
+    }
+
+    @Test
+    void testAsyncCheckerReturnsNull() {
+        AtomicInteger checkCount = new AtomicInteger();
+        WeightFailover<String> failover = WeightFailover.<String> newGenericBuilder()
+                .asyncChecker(obj -> checkCount.incrementAndGet() == 1 ? null
+                                                                       : CompletableFuture.completedFuture(true),
+                        1, 100, MILLISECONDS)
+                .checkDuration(10, MILLISECONDS)
+                .build(of("1"));
+        failover.down("1");
+        // the null future is a failed check and the next round still runs
+        waitUntil(() -> failover.currentWeight("1") > 0, Duration.ofSeconds(5));
+        assertTrue(checkCount.get() >= 2);
+        failover.close();
+    }
+
+    @Test
+    void testAsyncCheckerThrows() {
+        AtomicInteger checkCount = new AtomicInteger();
+        WeightFailover<String> failover = WeightFailover.<String> newGenericBuilder()
+                .asyncChecker(obj -> {
+                    if (checkCount.incrementAndGet() == 1) {
+                        throw new IllegalStateException();
+                    }
+                    return CompletableFuture.completedFuture(true);
+                }, 1, 100, MILLISECONDS)
+                .checkDuration(10, MILLISECONDS)
+                .build(of("1"));
+        failover.down("1");
+        waitUntil(() -> failover.currentWeight("1") > 0, Duration.ofSeconds(5));
+        assertTrue(checkCount.get() >= 2);
+        failover.close();
+    }
+
+    @Test
+    void testMetrics() {
+        List<String> original = Arrays.asList("1", "2");
+        WeightFailover<String> failover = WeightFailover.<String> newGenericBuilder()
+                .checker(it -> true, 1)
+                .checkDuration(10, MILLISECONDS)
+                .metrics(true)
+                .build(original);
+        for (int i = 0; i < 100; i++) {
+            String one = failover.getOneAvailable();
+            if (i % 10 != 0) {
+                failover.success(one, 100);
+            } else {
+                failover.fail(one);
+            }
+        }
+        failover.down("1");
+        long picks = 0;
+        long successes = 0;
+        long failures = 0;
+        for (String res : original) {
+            ResourceMetrics metrics = failover.getMetrics(res);
+            picks += metrics.getPicks();
+            successes += metrics.getSuccesses();
+            failures += metrics.getFailures();
+            assertEquals(metrics.getSuccesses(), metrics.getLatencyCount());
+        }
+        assertEquals(100, picks);
+        assertEquals(90, successes);
+        assertEquals(10, failures);
+        assertEquals(1, failover.getMetrics("1").getDowns());
+        sleepUninterruptibly(100, MILLISECONDS);
+        assertTrue(failover.getMetrics("1").getRecoveries() >= 1);
+
+        List<String> visited = new ArrayList<>();
+        failover.visitMetrics((res, metrics) -> visited.add(res));
+        assertEquals(original, visited);
+        failover.close();
+    }
+
     @Test
     void testMinWeight() {
         List<String> original = Arrays.asList("1", "2", "3");
@@ -235,6 +346,144 @@ class WeightFailoverTest {
         assertTrue(checkRatio(result.count("s3"), result.count("s1"), 3));
     }
 
+    @Test
+    void testSelectSnapshot() {
+        WeightFailover<String> failover = WeightFailover.<String> newGenericBuilder()
+                .checker(it -> 0.0)
+                .failReduce(2)
+                .successIncrease(2)
+                .build(ImmutableMap.of("s1", 2, "s2", 4, "s3", 6));
+        Multiset<String> result = HashMultiset.create();
+        for (int i = 0; i < 10000; i++) {
+            result.add(failover.getOneAvailable());
+        }
+        assertTrue(checkRatio(result.count("s2"), result.count("s1"), 2));
+        assertTrue(checkRatio(result.count("s3"), result.count("s1"), 3));
+
+        // s3: 6 -> 2, the snapshot should be rebuilt
+        failover.fail("s3");
+        failover.fail("s3");
+        result.clear();
+        for (int i = 0; i < 10000; i++) {
+            result.add(failover.getOneAvailable());
+        }
+        assertTrue(checkRatio(result.count("s2"), result.count("s3"), 2));
+
+        // s3: 2 -> 4, only weight changed but available list not
+        failover.success("s3");
+        result.clear();
+        for (int i = 0; i < 10000; i++) {
+            result.add(failover.getOneAvailableExclude(of("s1")));
+        }
+        assertEquals(0, result.count("s1"));
+        assertTrue(checkRatio(result.count("s3"), result.count("s2"), 1));
+
+        failover.down("s1");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("s3", failover.getOneAvailableExclude(of("s2")));
+        }
+        assertNull(failover.getOneAvailableExclude(of("s2", "s3")));
+    }
+
+    @Test
+    void testAvailableCache() {
+        WeightFailover<String> failover = WeightFailover.<String> newGenericBuilder()
+                .checker(it -> 0.0)
+                .build(of("s1", "s2", "s3"), 100);
+        List<String> available = failover.getAvailable();
+        assertEquals(3, available.size());
+
+        // weight changed but available list not
+        failover.fail("s1");
+        failover.fail("s1");
+        failover.success("s2");
+        assertSame(available, failover.getAvailable());
+        assertEquals(2, failover.getAvailableCacheStats().getHitCount());
+        assertEquals(0, failover.getAvailableCacheStats().getRebuildCount());
+
+        failover.down("s1");
+        available = failover.getAvailable();
+        assertEquals(new HashSet<>(of("s2", "s3")), new HashSet<>(available));
+        assertEquals(1, failover.getAvailableCacheStats().getRebuildCount());
+
+        // already down
+        failover.fail("s1");
+        failover.down("s1");
+        assertSame(available, failover.getAvailable());
+
+        failover.success("s1");
+        assertEquals(3, failover.getAvailable().size());
+        assertEquals(2, failover.getAvailableCacheStats().getRebuildCount());
+        assertEquals(0.6, failover.getAvailableCacheStats().getHitRate(), 0.001);
+    }
+
+    @Test
+    void testKeyedFilter() {
+        ThreadLocal<String> zone = new ThreadLocal<>();
+        WeightFailover<String> failover = WeightFailover.<String> newGenericBuilder()
+                .checker(it -> 0.0)
+                .keyedFilter(it -> it.substring(0, 1), zone::get)
+                .build(of("a1", "a2", "b1"), 100);
+        assertEquals(3, failover.getAvailable().size());
+
+        zone.set("a");
+        List<String> available = failover.getAvailable();
+        assertEquals(new HashSet<>(of("a1", "a2")), new HashSet<>(available));
+        assertSame(available, failover.getAvailable());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(failover.getOneAvailable().startsWith("a"));
+        }
+        assertEquals("a2", failover.getOneAvailableExclude(of("a1")));
+
+        zone.set("b");
+        assertEquals(of("b1"), failover.getAvailable());
+        failover.down("b1");
+        assertTrue(failover.getAvailable().isEmpty());
+        assertNull(failover.getOneAvailable());
+
+        // any membership change invalidates the cached lists of all keys
+        zone.set("a");
+        assertEquals(available, failover.getAvailable());
+        failover.down("a1");
+        assertEquals(of("a2"), failover.getAvailable());
+
+        zone.set("c");
+        assertTrue(failover.getAvailable().isEmpty());
+
+        zone.remove();
+        assertEquals(of("a2"), failover.getAvailable());
+        assertEquals(2, failover.getAvailableCacheStats().getHitCount());
+    }
+
+    @Test
+    void testKeyedFilterWithFilter() {
+        assertThrows(IllegalStateException.class, () -> WeightFailover.<String> newGenericBuilder()
+                .checker(it -> 0.0)
+                .filter(it -> true)
+                .keyedFilter(it -> it, () -> null)
+                .build(of("a1")));
+    }
+
+    @Test
+    void testReport() {
+        WeightFailover<String> failover = WeightFailover.<String> newGenericBuilder()
+                .checker(it -> 0.0)
+                .failReduce(60)
+                .successIncrease(10)
+                .build(of("s1", "s2", "s3"), 100);
+        List<String> available = failover.getAvailable();
+        failover.fail("s3");
+        failover.report(of("s3", "unknown"), of("s1", "s1", "s2"));
+        assertEquals(50, failover.currentWeight("s3"));
+        assertEquals(0, failover.currentWeight("s1"));
+        assertEquals(40, failover.currentWeight("s2"));
+        assertEquals(of("s2", "s3"), failover.getAvailable().stream().sorted().collect(Collectors.toList()));
+        assertNotEquals(available, failover.getAvailable());
+        for (int i = 0; i < 100; i++) {
+            assertNotEquals("s1", failover.getOneAvailable());
+        }
+    }
+
     private boolean check(String test) {
         System.out.println("test:" + test);
         return true;
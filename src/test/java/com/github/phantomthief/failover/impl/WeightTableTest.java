@@ -0,0 +1,68 @@
+package com.github.phantomthief.failover.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+class WeightTableTest {
+
+    @Test
+    void testGrow() {
+        WeightTable<String> table = new WeightTable<>(ImmutableMap.of("a", 10, "b", 20));
+        assertEquals(2, table.size());
+        assertEquals(-1, table.indexOf("c"));
+        int b = table.indexOf("b");
+        table.set(b, 5);
+
+        int c = table.addIfAbsent("c", 30);
+        assertEquals(c, table.addIfAbsent("c", 100));
+        assertEquals(3, table.size());
+        assertEquals("c", table.resource(c));
+        assertEquals(30, table.initWeight(c));
+        assertEquals(30, table.currentWeight(c));
+        assertEquals(5, table.currentWeight(b));
+        assertEquals(20, table.initWeight(b));
+        assertEquals(b, table.indexOf("b"));
+    }
+
+    @Test
+    void testNoLostUpdateWhenGrow() throws InterruptedException {
+        int loop = 100000;
+        WeightTable<String> table = new WeightTable<>(ImmutableMap.of("a", 0));
+        int a = table.indexOf("a");
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int j = 0; j < loop; j++) {
+                    int old;
+                    do {
+                        old = table.currentWeight(a);
+                    } while (!table.compareAndSet(a, old, old + 1));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (int i = 0; i < 1000; i++) {
+            table.addIfAbsent("n" + i, 1);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4 * loop, table.currentWeight(a));
+        assertEquals(1001, table.size());
+    }
+}
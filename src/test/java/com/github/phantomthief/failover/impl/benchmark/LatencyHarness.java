@@ -0,0 +1,372 @@
+package com.github.phantomthief.failover.impl.benchmark;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.phantomthief.failover.SimpleFailover;
+import com.github.phantomthief.failover.impl.PartitionFailover;
+import com.github.phantomthief.failover.impl.PriorityFailover;
+import com.github.phantomthief.failover.impl.PriorityFailoverBuilder;
+import com.github.phantomthief.failover.impl.WeightFailover;
+
+/**
+ * 固定到达速率的延迟压测，用来观察failover在资源不健康时（权重频繁变化、锁竞争）的尾延迟，JMH的吞吐数据看不到这些。
+ *
+ * 每个线程按固定的间隔（threads/rate）安排调用，第n次调用的计划开始时间是start+n*interval，
+ * 调用的延迟从计划开始时间算起，而不是实际开始时间：前面的调用卡住以后，后面排队的调用的等待时间也会被统计进来，
+ * 避免coordinated omission（只测实际开始时间的话，卡住的那段时间里"本该发生"的调用都被漏掉了）。
+ * 同时也单独统计getOneAvailable和success/fail本身的耗时（服务时间）。
+ *
+ * 参数以key=value的形式传入，都有默认值：
+ * <ul>
+ *     <li>failover：priority、weight或者partition</li>
+ *     <li>resources：资源数</li>
+ *     <li>threads：压测线程数</li>
+ *     <li>rate：所有线程加起来每秒的调用数</li>
+ *     <li>warmup、duration：预热和统计的秒数</li>
+ *     <li>pattern：注入的失败模式，见{@link FailurePattern}</li>
+ *     <li>failRate：RANDOM模式下每次调用失败的概率</li>
+ *     <li>concurrencyControl：priority是否开启并发度控制</li>
+ * </ul>
+ * 可以直接运行main，也可以通过maven运行：
+ * {@code mvn -P benchmark test -Dbenchmark.main=com.github.phantomthief.failover.impl.benchmark.LatencyHarness
+ * -Dbenchmark.args="failover=priority pattern=BURST rate=200000"}
+ */
+public class LatencyHarness {
+
+    /**
+     * 剩余时间小于这个值时不再park（park本身的误差在几十微秒），改为自旋。
+     */
+    private static final long SPIN_THRESHOLD = NANOSECONDS.convert(50, MICROSECONDS);
+
+    /**
+     * 注入的失败模式，不健康的资源上的调用全部报告失败，健康检查也返回失败。
+     */
+    enum FailurePattern {
+        /**
+         * 所有资源都是健康的。
+         */
+        NONE,
+        /**
+         * 所有资源都是健康的，但是每次调用都有failRate的概率失败。
+         */
+        RANDOM,
+        /**
+         * 每5秒中有1秒，第一个资源完全不可用。
+         */
+        BURST,
+        /**
+         * 五分之一的资源每500毫秒在健康和不健康之间切换一次。
+         */
+        FLAPPING;
+
+        private static final long BURST_PERIOD = SECONDS.toNanos(5);
+        private static final long BURST_LENGTH = SECONDS.toNanos(1);
+        private static final long FLAP_PERIOD = SECONDS.toNanos(1) / 2;
+
+        boolean healthy(int resource, int resources, long elapsedNanos) {
+            switch (this) {
+                case BURST:
+                    return resource != 0 || elapsedNanos % BURST_PERIOD >= BURST_LENGTH;
+                case FLAPPING:
+                    return resource >= Math.max(1, resources / 5) || (elapsedNanos / FLAP_PERIOD) % 2 == 0;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    private final Map<String, String> params;
+    private final String failoverType;
+    private final int resources;
+    private final int threads;
+    private final long rate;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final FailurePattern pattern;
+    private final double failRate;
+    private final boolean concurrencyControl;
+
+    private volatile long startNanos;
+
+    LatencyHarness(Map<String, String> params) {
+        this.params = params;
+        this.failoverType = param("failover", "priority");
+        this.resources = Integer.parseInt(param("resources", "20"));
+        this.threads = Integer.parseInt(param("threads", "16"));
+        this.rate = Long.parseLong(param("rate", "100000"));
+        this.warmupSeconds = Integer.parseInt(param("warmup", "5"));
+        this.durationSeconds = Integer.parseInt(param("duration", "20"));
+        this.pattern = FailurePattern.valueOf(param("pattern", "BURST"));
+        this.failRate = Double.parseDouble(param("failRate", "0.01"));
+        this.concurrencyControl = Boolean.parseBoolean(param("concurrencyControl", "false"));
+    }
+
+    private String param(String key, String defaultValue) {
+        return params.getOrDefault(key, defaultValue);
+    }
+
+    private boolean healthy(int resource) {
+        return pattern.healthy(resource, resources, System.nanoTime() - startNanos);
+    }
+
+    private SimpleFailover<Integer> buildFailover() {
+        List<Integer> all = new ArrayList<>(resources);
+        for (int i = 0; i < resources; i++) {
+            all.add(i);
+        }
+        switch (failoverType) {
+            case "priority":
+                PriorityFailoverBuilder<Integer> builder = PriorityFailover.newBuilder();
+                all.forEach(res -> builder.addResource(res, 100));
+                return builder.checker(this::healthy)
+                        .checkDuration(Duration.ofMillis(100))
+                        .concurrencyControl(concurrencyControl)
+                        .build();
+            case "weight":
+                return WeightFailover.<Integer> newGenericBuilder()
+                        .checker(this::healthy, 1)
+                        .checkDuration(100, MILLISECONDS)
+                        .failReduceRate(0.1)
+                        .build(all, 100);
+            case "partition":
+                return PartitionFailover.<Integer> newBuilder()
+                        .checker(this::healthy, 1)
+                        .checkDuration(100, MILLISECONDS)
+                        .corePartitionSize(Math.min(5, resources))
+                        .failReduceRate(0.1)
+                        .build(all, 100);
+            default:
+                throw new IllegalArgumentException("unknown failover:" + failoverType);
+        }
+    }
+
+    void run() throws InterruptedException {
+        SimpleFailover<Integer> failover = buildFailover();
+        long intervalNanos = SECONDS.toNanos(1) * threads / rate;
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("rate too high for " + threads + " threads: " + rate);
+        }
+        long warmupEnd = SECONDS.toNanos(warmupSeconds);
+        long end = warmupEnd + SECONDS.toNanos(durationSeconds);
+        Worker[] workers = new Worker[threads];
+        CountDownLatch done = new CountDownLatch(threads);
+        startNanos = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            // spread the first calls of the threads over one interval
+            Worker worker = new Worker(failover, intervalNanos, intervalNanos * i / threads, warmupEnd, end, done);
+            workers[i] = worker;
+            Thread thread = new Thread(worker, "latency-harness-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        failover.close();
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram select = new LatencyHistogram();
+        LatencyHistogram report = new LatencyHistogram();
+        long failures = 0;
+        long misses = 0;
+        for (Worker worker : workers) {
+            latency.add(worker.latency);
+            select.add(worker.select);
+            report.add(worker.report);
+            failures += worker.failures;
+            misses += worker.misses;
+        }
+        System.out.printf("failover=%s resources=%d threads=%d rate=%d/s pattern=%s duration=%ds%n",
+                failoverType, resources, threads, rate, pattern, durationSeconds);
+        System.out.printf("calls=%d (%.0f/s) failures=%d misses=%d%n", latency.count(),
+                latency.count() / (double) durationSeconds, failures, misses);
+        System.out.printf("%-28s %10s %10s %10s %10s%n", "(microseconds)", "p50", "p99", "p99.9", "max");
+        print("latency (from intended start)", latency);
+        print("getOneAvailable", select);
+        print("success/fail", report);
+    }
+
+    private static void print(String name, LatencyHistogram histogram) {
+        System.out.printf("%-28s %10.1f %10.1f %10.1f %10.1f%n", name,
+                histogram.percentile(0.5) / 1000.0, histogram.percentile(0.99) / 1000.0,
+                histogram.percentile(0.999) / 1000.0, histogram.max() / 1000.0);
+    }
+
+    private class Worker implements Runnable {
+
+        private final SimpleFailover<Integer> failover;
+        private final long intervalNanos;
+        private final long offsetNanos;
+        private final long warmupEnd;
+        private final long end;
+        private final CountDownLatch done;
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram select = new LatencyHistogram();
+        private final LatencyHistogram report = new LatencyHistogram();
+        private long failures;
+        private long misses;
+
+        Worker(SimpleFailover<Integer> failover, long intervalNanos, long offsetNanos, long warmupEnd, long end,
+                CountDownLatch done) {
+            this.failover = failover;
+            this.intervalNanos = intervalNanos;
+            this.offsetNanos = offsetNanos;
+            this.warmupEnd = warmupEnd;
+            this.end = end;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long start = startNanos;
+                for (long n = 0;; n++) {
+                    long intended = offsetNanos + n * intervalNanos;
+                    if (intended >= end) {
+                        return;
+                    }
+                    waitUntil(start + intended);
+                    long t0 = System.nanoTime();
+                    Integer res = failover.getOneAvailable();
+                    long t1 = System.nanoTime();
+                    boolean ok = res != null && healthy(res) && (pattern != FailurePattern.RANDOM
+                            || random.nextDouble() >= failRate);
+                    long t2 = System.nanoTime();
+                    if (res != null) {
+                        if (ok) {
+                            failover.success(res);
+                        } else {
+                            failover.fail(res);
+                        }
+                    }
+                    long t3 = System.nanoTime();
+                    if (intended < warmupEnd) {
+                        continue;
+                    }
+                    // the time spent deciding the result is not a library call, but it is tiny and it is in the
+                    // schedule anyway
+                    latency.record(t3 - start - intended);
+                    select.record(t1 - t0);
+                    if (res == null) {
+                        misses++;
+                    } else {
+                        report.record(t3 - t2);
+                        if (!ok) {
+                            failures++;
+                        }
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void waitUntil(long deadline) {
+            long left;
+            while ((left = deadline - System.nanoTime()) > 0) {
+                if (left > SPIN_THRESHOLD) {
+                    LockSupport.parkNanos(left - SPIN_THRESHOLD);
+                }
+            }
+        }
+    }
+
+    /**
+     * 对数线性的延迟直方图（和HdrHistogram的思路一样）：按2的幂分段，每段再均分成SUB_BUCKETS个桶，
+     * 相对误差不超过1/SUB_BUCKETS。每个压测线程一个实例，不是线程安全的，结束以后再合并。
+     */
+    static final class LatencyHistogram {
+
+        private static final int SUB_BUCKET_BITS = 7;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final long[] counts = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+        private long count;
+        private long max;
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts[indexOf(value)]++;
+            count++;
+            max = Math.max(max, value);
+        }
+
+        static int indexOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            // value is in [2^exp, 2^(exp+1)), keep the top SUB_BUCKET_BITS bits below the leading one
+            int exp = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            int shift = exp - SUB_BUCKET_BITS;
+            int sub = (int) (value >>> shift) - SUB_BUCKETS;
+            return (shift + 1) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * @return 这个桶里最大的值
+         */
+        static long highestValueOf(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+            return ((sub + 1) << shift) - 1;
+        }
+
+        void add(LatencyHistogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        long count() {
+            return count;
+        }
+
+        long max() {
+            return max;
+        }
+
+        long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index <= 0) {
+                throw new IllegalArgumentException("bad argument, key=value expected:" + arg);
+            }
+            params.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+        new LatencyHarness(params).run();
+    }
+}
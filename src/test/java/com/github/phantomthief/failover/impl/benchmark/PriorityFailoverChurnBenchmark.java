@@ -0,0 +1,94 @@
+package com.github.phantomthief.failover.impl.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.phantomthief.failover.impl.PriorityFailover;
+import com.github.phantomthief.failover.impl.PriorityFailoverBuilder;
+import com.github.phantomthief.failover.impl.SimpleWeightFunction;
+
+/**
+ * 权重一直在变化（一部分资源总是处于不健康状态）的分组中，对比线性扫描、树状数组和异步重建的AliasMethod三种选择方式。
+ * 每次调用选择一个资源，并对一个随机资源报告结果，其中1%是失败。
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@State(Scope.Benchmark)
+public class PriorityFailoverChurnBenchmark {
+
+    @Param({"1000", "10000"})
+    private int totalSize;
+
+    @Param({"linear", "fenwickTree", "asyncAlias"})
+    private String mode;
+
+    private static final int FAIL_RATE = 100;
+
+    private PriorityFailover<String> priorityFailover;
+
+    private String[] resources;
+
+    @Setup
+    public void init() {
+        PriorityFailoverBuilder<String> builder = PriorityFailover.newBuilder();
+        resources = new String[totalSize];
+        for (int i = 0; i < totalSize; i++) {
+            resources[i] = "key" + i;
+            builder.addResource(resources[i], 100 + i % 10);
+        }
+        builder.weightFunction(new SimpleWeightFunction<>(0.5, 0.01));
+        if ("fenwickTree".equals(mode)) {
+            builder.fenwickTreeThreshold(0);
+        } else if ("asyncAlias".equals(mode)) {
+            builder.asyncAliasMethod(Duration.ofMillis(10), Duration.ofSeconds(1));
+        }
+        priorityFailover = builder.build();
+    }
+
+    @TearDown
+    public void close() {
+        priorityFailover.close();
+    }
+
+    @Benchmark
+    public String getOneAndReport() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String res = priorityFailover.getOneAvailable();
+        String reported = resources[random.nextInt(resources.length)];
+        if (random.nextInt(FAIL_RATE) == 0) {
+            priorityFailover.fail(reported);
+        } else {
+            priorityFailover.success(reported);
+        }
+        return res;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PriorityFailoverChurnBenchmark.class.getSimpleName())
+                .output(System.getProperty("user.home") + "/" + PriorityFailoverChurnBenchmark.class.getSimpleName()
+                        + ".txt")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.phantomthief.failover.impl.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.phantomthief.failover.impl.PriorityFailover;
+import com.github.phantomthief.failover.impl.PriorityFailoverBuilder;
+
+/**
+ * 开启并发度控制以后getOneAvailable+success的吞吐（包括P2C算法），以及单独对比并发度计数器本身：
+ * 原来相邻资源共享缓存行、用updateAndGet做CAS循环的计数器，和现在填充隔离、原子加的计数器。
+ * 用不同的线程数运行（-t 16/32/64）观察扩展性。
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@State(Scope.Benchmark)
+public class PriorityFailoverConcurrencyBenchmark {
+
+    private static final int MAX_CONCURRENCY = 100000;
+
+    @Param({"5", "100", "1000"})
+    private int totalSize;
+
+    @Param({"false", "true"})
+    private boolean powerOfTwoChoices;
+
+    private PriorityFailover<String> priorityFailover;
+
+    private Map<String, AtomicInteger> legacyCounters;
+
+    private String[] resources;
+
+    @Setup
+    public void init() {
+        PriorityFailoverBuilder<String> builder = PriorityFailover.newBuilder();
+        resources = new String[totalSize];
+        legacyCounters = new HashMap<>();
+        for (int i = 0; i < totalSize; i++) {
+            resources[i] = "key" + i;
+            legacyCounters.put(resources[i], new AtomicInteger());
+            builder.addResource(resources[i], 100);
+        }
+        builder.concurrencyControl(true);
+        builder.powerOfTwoChoices(powerOfTwoChoices);
+        priorityFailover = builder.build();
+    }
+
+    @TearDown
+    public void close() {
+        priorityFailover.close();
+    }
+
+    @Benchmark
+    public String getOneSuccess() {
+        String res = priorityFailover.getOneAvailable();
+        priorityFailover.success(res);
+        return res;
+    }
+
+    @Benchmark
+    public void counter() {
+        String res = resources[ThreadLocalRandom.current().nextInt(totalSize)];
+        priorityFailover.incrConcurrency(res);
+        priorityFailover.decrConcurrency(res);
+    }
+
+    @Benchmark
+    public void legacyCounter() {
+        String res = resources[ThreadLocalRandom.current().nextInt(totalSize)];
+        // look up twice, the same as incrConcurrency/decrConcurrency
+        legacyCounters.get(res).updateAndGet(v -> Math.min(v + 1, MAX_CONCURRENCY));
+        legacyCounters.get(res).updateAndGet(v -> Math.max(v - 1, 0));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[] {16, 32, 64}) {
+            Options options = new OptionsBuilder()
+                    .include(PriorityFailoverConcurrencyBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .output(System.getProperty("user.home") + "/"
+                            + PriorityFailoverConcurrencyBenchmark.class.getSimpleName() + "-" + threads + ".txt")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.phantomthief.failover.impl.benchmark;
+
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.phantomthief.failover.impl.PriorityFailover;
+import com.github.phantomthief.failover.impl.PriorityFailoverBuilder;
+import com.github.phantomthief.failover.impl.PriorityFailoverBuilder.ResConfig;
+import com.github.phantomthief.failover.impl.PriorityFailoverManager;
+
+/**
+ * PriorityFailoverManager一次更新（上线一个资源同时下线一个资源）的开销随资源数、分组数的变化，
+ * fullRebuild是用全部资源重新构建一个failover的开销，作为对比。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class PriorityFailoverManagerUpdateBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    private int totalSize;
+
+    @Param({"1", "10"})
+    private int groupCount;
+
+    private PriorityFailoverManager<String> manager;
+    private int seq;
+
+    @Setup
+    public void init() {
+        manager = newBuilder().buildManager();
+        manager.update(singletonMap("extra0", new ResConfig(100, 0, 0)), null);
+    }
+
+    private PriorityFailoverBuilder<String> newBuilder() {
+        PriorityFailoverBuilder<String> builder = PriorityFailover.newBuilder();
+        for (int i = 0; i < totalSize; i++) {
+            builder.addResource("key" + i, 100, 0, i % groupCount);
+        }
+        return builder;
+    }
+
+    @TearDown
+    public void close() {
+        manager.getFailover().close();
+    }
+
+    @Benchmark
+    public PriorityFailover<String> incrementalUpdate() {
+        String removed = "extra" + seq;
+        String added = "extra" + (++seq);
+        manager.update(singletonMap(added, new ResConfig(100, 0, 0)), singleton(removed));
+        return manager.getFailover();
+    }
+
+    @Benchmark
+    public PriorityFailover<String> fullRebuild() {
+        PriorityFailover<String> failover = newBuilder().build();
+        failover.close();
+        return failover;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PriorityFailoverManagerUpdateBenchmark.class.getSimpleName())
+                .output(System.getProperty("user.home") + "/"
+                        + PriorityFailoverManagerUpdateBenchmark.class.getSimpleName() + ".txt")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.phantomthief.failover.impl.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.phantomthief.failover.impl.PriorityFailover;
+import com.github.phantomthief.failover.impl.PriorityFailoverBuilder;
+import com.github.phantomthief.failover.impl.SimpleWeightFunction;
+
+/**
+ * 所有资源在同一个优先级分组里，多个线程并发的报告success/fail，失败以后需要很多次成功才能恢复，
+ * 所以大部分success调用都会真正修改权重，用来观察分组权重更新的开销随资源数量的变化。
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@State(Scope.Benchmark)
+public class PriorityFailoverReportBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int totalSize;
+
+    @Param({"false", "true"})
+    private boolean fenwickTree;
+
+    private static final int FAIL_RATE = 100;
+
+    private PriorityFailover<String> priorityFailover;
+
+    private String[] resources;
+
+    @Setup
+    public void init() {
+        PriorityFailoverBuilder<String> builder = PriorityFailover.newBuilder();
+        resources = new String[totalSize];
+        for (int i = 0; i < totalSize; i++) {
+            resources[i] = "key" + i;
+            builder.addResource(resources[i], 100);
+        }
+        builder.weightFunction(new SimpleWeightFunction<>(0.5, 0.01));
+        if (fenwickTree) {
+            builder.fenwickTreeThreshold(0);
+        }
+        priorityFailover = builder.build();
+    }
+
+    @TearDown
+    public void close() {
+        priorityFailover.close();
+    }
+
+    @Benchmark
+    public void successOrFail() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String res = resources[random.nextInt(resources.length)];
+        if (random.nextInt(FAIL_RATE) == 0) {
+            priorityFailover.fail(res);
+        } else {
+            priorityFailover.success(res);
+        }
+    }
+
+    @Benchmark
+    public String getOneSuccessOrFail() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String res = priorityFailover.getOneAvailable();
+        if (random.nextInt(FAIL_RATE) == 0) {
+            priorityFailover.fail(res);
+        } else {
+            priorityFailover.success(res);
+        }
+        return res;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PriorityFailoverReportBenchmark.class.getSimpleName())
+                .output(System.getProperty("user.home") + "/" + PriorityFailoverReportBenchmark.class.getSimpleName()
+                        + ".txt")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.phantomthief.failover.impl.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.phantomthief.failover.impl.PriorityFailover;
+import com.github.phantomthief.failover.impl.PriorityFailoverBuilder;
+
+/**
+ * 所有资源都健康且权重相同的分组走轮询逻辑，对比条带化的计数器和原来所有线程共享一个普通int的实现，
+ * 用不同的线程数运行（-t 1/8/32）观察扩展性。
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@State(Scope.Benchmark)
+public class PriorityFailoverRoundRobinBenchmark {
+
+    @Param({"5", "100"})
+    private int totalSize;
+
+    private PriorityFailover<String> priorityFailover;
+
+    private String[] resources;
+
+    /**
+     * the shared round robin index used before the striped counter.
+     */
+    private int legacyRoundRobinIndex;
+
+    @Setup
+    public void init() {
+        PriorityFailoverBuilder<String> builder = PriorityFailover.newBuilder();
+        resources = new String[totalSize];
+        for (int i = 0; i < totalSize; i++) {
+            resources[i] = "key" + i;
+            builder.addResource(resources[i], 100);
+        }
+        priorityFailover = builder.build();
+    }
+
+    @TearDown
+    public void close() {
+        priorityFailover.close();
+    }
+
+    @Benchmark
+    public String getOneAvailable() {
+        return priorityFailover.getOneAvailable();
+    }
+
+    @Benchmark
+    public String legacyRoundRobin() {
+        int roundRobinIndex = legacyRoundRobinIndex;
+        legacyRoundRobinIndex = (roundRobinIndex + 1) % resources.length;
+        return resources[roundRobinIndex];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[] {1, 8, 32}) {
+            Options options = new OptionsBuilder()
+                    .include(PriorityFailoverRoundRobinBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .output(System.getProperty("user.home") + "/"
+                            + PriorityFailoverRoundRobinBenchmark.class.getSimpleName() + "-" + threads + ".txt")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
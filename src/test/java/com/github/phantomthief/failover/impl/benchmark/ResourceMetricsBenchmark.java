@@ -0,0 +1,94 @@
+package com.github.phantomthief.failover.impl.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.phantomthief.failover.impl.PriorityFailover;
+import com.github.phantomthief.failover.impl.PriorityFailoverBuilder;
+import com.github.phantomthief.failover.impl.WeightFailover;
+
+/**
+ * 开启调用统计（metrics）以后getOneAvailable+success(latency)的开销，和不开启的对比，差值就是记录统计的开销。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ResourceMetricsBenchmark {
+
+    @Param({"5", "100"})
+    private int totalSize;
+
+    @Param({"false", "true"})
+    private boolean metrics;
+
+    private PriorityFailover<String> priorityFailover;
+    private WeightFailover<String> weightFailover;
+
+    @Setup
+    public void init() {
+        PriorityFailoverBuilder<String> builder = PriorityFailover.newBuilder();
+        List<String> resources = new ArrayList<>();
+        for (int i = 0; i < totalSize; i++) {
+            builder.addResource("key" + i, 100);
+            resources.add("key" + i);
+        }
+        builder.metrics(metrics);
+        priorityFailover = builder.build();
+        weightFailover = WeightFailover.<String> newGenericBuilder()
+                .checker(it -> true, 1)
+                .metrics(metrics)
+                .build(resources, 100);
+    }
+
+    @TearDown
+    public void close() {
+        priorityFailover.close();
+        weightFailover.close();
+    }
+
+    @Benchmark
+    public String priorityFailover() {
+        String res = priorityFailover.getOneAvailable();
+        priorityFailover.success(res, 1000);
+        return res;
+    }
+
+    @Benchmark
+    public String weightFailover() {
+        String res = weightFailover.getOneAvailable();
+        weightFailover.success(res, 1000);
+        return res;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ResourceMetricsBenchmark.class.getSimpleName())
+                .output(System.getProperty("user.home") + "/" + ResourceMetricsBenchmark.class.getSimpleName()
+                        + ".txt")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.phantomthief.failover.impl.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.phantomthief.failover.impl.WeightFailover;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMap.Builder;
+
+/**
+ * 所有线程都向同一个热点资源报告结果，用不同的线程数运行（-t 1/8/32/64）观察success/fail的扩展性。
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@State(Scope.Benchmark)
+public class WeightFailoverReportBenchmark {
+
+    @Param({"10", "1000"})
+    private int totalSize;
+
+    private static final int FAIL_RATE = 999;
+
+    private WeightFailover<String> weightFailover;
+
+    private String hot;
+
+    private long count;
+
+    @Setup
+    public void init() {
+        Builder<String, Integer> builder = ImmutableMap.builder();
+        for (int i = 0; i < totalSize; ++i) {
+            builder.put("key" + i, 100);
+        }
+        weightFailover = WeightFailover.<String> newGenericBuilder()
+                .checker(it -> true, 1)
+                .failReduceRate(0.01)
+                .successIncreaseRate(0.01)
+                .build(builder.build());
+        hot = "key0";
+    }
+
+    @Benchmark
+    public void successHot() {
+        weightFailover.success(hot);
+    }
+
+    @Benchmark
+    public void successOrFailHot() {
+        if (count++ % FAIL_RATE == 0) {
+            weightFailover.fail(hot);
+        } else {
+            weightFailover.success(hot);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[] {1, 8, 32, 64}) {
+            Options options = new OptionsBuilder()
+                    .include(WeightFailoverReportBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .output(System.getProperty("user.home") + "/" + WeightFailoverReportBenchmark.class.getSimpleName()
+                            + "-" + threads + ".txt")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
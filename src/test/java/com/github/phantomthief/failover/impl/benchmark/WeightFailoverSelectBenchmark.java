@@ -0,0 +1,163 @@
+package com.github.phantomthief.failover.impl.benchmark;
+
+import static com.github.phantomthief.tuple.Tuple.tuple;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.phantomthief.failover.impl.WeightFailover;
+import com.github.phantomthief.tuple.TwoTuple;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMap.Builder;
+
+/**
+ * 对比WeightFailover基于快照的选择和原来每次构建LinkedList的选择，加上 -prof gc 可以看到每次调用的内存分配。
+ * getOneAvailableUnderChurn每次选择以后都报告成功，并且不断有资源失败，权重一直在恢复中，
+ * 用来观察权重频繁变化时快照重建带来的分配（gc.alloc.rate.norm）。
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Threads(10)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@State(Scope.Benchmark)
+public class WeightFailoverSelectBenchmark {
+
+    @Param({"5", "20", "100", "1000"})
+    private int totalSize;
+
+    private static final int CHURN_FAIL_RATE = 16;
+
+    private WeightFailover<String> weightFailover;
+    private WeightFailover<String> churnFailover;
+    private String[] resources;
+    private ConcurrentMap<String, Integer> legacyWeightMap;
+    private List<String> exclusions;
+
+    @Setup
+    public void init() {
+        Builder<String, Integer> builder = ImmutableMap.builder();
+        for (int i = 0; i < totalSize; ++i) {
+            builder.put("key" + i, ThreadLocalRandom.current().nextInt(1, 100));
+        }
+        ImmutableMap<String, Integer> weightMap = builder.build();
+        weightFailover = WeightFailover.<String> newGenericBuilder()
+                .checker(it -> true, 1)
+                .build(weightMap);
+        churnFailover = WeightFailover.<String> newGenericBuilder()
+                .checker(it -> true, 1)
+                .failReduceRate(0.5)
+                .successIncreaseRate(0.01)
+                .build(weightMap);
+        resources = weightMap.keySet().toArray(new String[0]);
+        legacyWeightMap = new ConcurrentHashMap<>(weightMap);
+        exclusions = ImmutableList.of("key0");
+    }
+
+    @Benchmark
+    public String getOneAvailable() {
+        return weightFailover.getOneAvailable();
+    }
+
+    @Benchmark
+    public String getOneAvailableExclude() {
+        return weightFailover.getOneAvailableExclude(exclusions);
+    }
+
+    @Benchmark
+    public String getOneAvailableUnderChurn() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String one = churnFailover.getOneAvailable();
+        if (one != null) {
+            churnFailover.success(one);
+        }
+        if (random.nextInt(CHURN_FAIL_RATE) == 0) {
+            churnFailover.fail(resources[random.nextInt(resources.length)]);
+        }
+        return one;
+    }
+
+    @TearDown
+    public void close() {
+        weightFailover.close();
+        churnFailover.close();
+    }
+
+    @Benchmark
+    public String legacyGetOneAvailable() {
+        return legacyGetOne(legacyWeightMap, Collections.emptyList());
+    }
+
+    @Benchmark
+    public String legacyGetOneAvailableExclude() {
+        return legacyGetOne(legacyWeightMap, exclusions);
+    }
+
+    /**
+     * the selection path of WeightFailover before the snapshot was introduced.
+     */
+    private static <T> T legacyGetOne(ConcurrentMap<T, Integer> currentWeightMap, Collection<T> exclusions) {
+        List<TwoTuple<T, Integer>> snapshot = new LinkedList<>();
+        int sum = 0;
+        for (Entry<T, Integer> entry : currentWeightMap.entrySet()) {
+            int thisWeight = entry.getValue();
+            snapshot.add(tuple(entry.getKey(), thisWeight));
+            sum += thisWeight;
+        }
+        int size = snapshot.size();
+        for (int i = 0; i < size && sum > 0; i++) {
+            int left = ThreadLocalRandom.current().nextInt(sum);
+            Iterator<TwoTuple<T, Integer>> iterator = snapshot.iterator();
+            while (iterator.hasNext()) {
+                TwoTuple<T, Integer> candidate = iterator.next();
+                int entryWeight = candidate.getSecond();
+                if (left < entryWeight) {
+                    T obj = candidate.getFirst();
+                    if (!exclusions.contains(obj)) {
+                        return obj;
+                    }
+                    iterator.remove();
+                    sum -= entryWeight;
+                    break;
+                }
+                left -= entryWeight;
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(WeightFailoverSelectBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .output(System.getProperty("user.home") + "/" + WeightFailoverSelectBenchmark.class.getSimpleName()
+                        + ".txt")
+                .build();
+        new Runner(options).run();
+    }
+}
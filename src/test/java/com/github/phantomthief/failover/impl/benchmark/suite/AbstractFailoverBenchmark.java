@@ -0,0 +1,109 @@
+package com.github.phantomthief.failover.impl.benchmark.suite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.phantomthief.failover.SimpleFailover;
+
+/**
+ * 所有failover实现共用的压测：选择一个资源（有排除列表时用getOneAvailableExclude）然后报告结果，
+ * 按资源数、健康状态和排除的资源数参数化，子类只负责构建failover（以及自己特有的参数）。
+ *
+ * 线程数不是参数，由{@link FailoverBenchmarkSuite}或者JMH的-t指定。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@State(Scope.Benchmark)
+public abstract class AbstractFailoverBenchmark {
+
+    /**
+     * FLAPPING状态下每(FLAP_MASK+1)次调用报告一次失败。
+     */
+    private static final int FLAP_MASK = 15;
+
+    /**
+     * DEGRADED状态下每DEGRADED_STEP个资源down掉一个。
+     */
+    private static final int DEGRADED_STEP = 5;
+
+    @Param({"10", "1000"})
+    protected int totalSize;
+
+    @Param({"HEALTHY", "DEGRADED", "FLAPPING"})
+    protected HealthState state;
+
+    @Param({"0", "3"})
+    protected int exclusionSize;
+
+    protected List<String> resources;
+
+    private List<String> exclusions;
+
+    private SimpleFailover<String> failover;
+
+    /**
+     * @param checker 健康检查，DEGRADED状态下对down掉的资源返回false
+     */
+    protected abstract SimpleFailover<String> buildFailover(List<String> resources, Predicate<String> checker);
+
+    @Setup
+    public void init() {
+        resources = new ArrayList<>(totalSize);
+        for (int i = 0; i < totalSize; i++) {
+            resources.add("key" + i);
+        }
+        // exclude resources from the tail, so they are never the ones down in DEGRADED state
+        exclusions = new ArrayList<>(resources.subList(totalSize - Math.min(exclusionSize, totalSize), totalSize));
+        failover = buildFailover(resources, res -> state != HealthState.DEGRADED || !isDegraded(res));
+        if (state == HealthState.DEGRADED) {
+            for (int i = 0; i < totalSize; i += DEGRADED_STEP) {
+                failover.down(resources.get(i));
+            }
+        }
+    }
+
+    private boolean isDegraded(String res) {
+        return resources.indexOf(res) % DEGRADED_STEP == 0;
+    }
+
+    @TearDown
+    public void close() throws Exception {
+        failover.close();
+    }
+
+    @Benchmark
+    public String getOneAndReport(Counter counter) {
+        String res = exclusions.isEmpty() ? failover.getOneAvailable() : failover.getOneAvailableExclude(exclusions);
+        if (res != null) {
+            if (state == HealthState.FLAPPING && (counter.count++ & FLAP_MASK) == 0) {
+                failover.fail(res);
+            } else {
+                failover.success(res);
+            }
+        }
+        return res;
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        private int count;
+    }
+}
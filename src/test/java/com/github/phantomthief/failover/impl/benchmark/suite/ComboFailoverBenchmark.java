@@ -0,0 +1,29 @@
+package com.github.phantomthief.failover.impl.benchmark.suite;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.github.phantomthief.failover.SimpleFailover;
+import com.github.phantomthief.failover.impl.ComboFailover;
+import com.github.phantomthief.failover.impl.WeightFailover;
+
+/**
+ * 资源平均分到两个WeightFailover中组合起来。
+ */
+public class ComboFailoverBenchmark extends AbstractFailoverBenchmark {
+
+    @Override
+    protected SimpleFailover<String> buildFailover(List<String> resources, Predicate<String> checker) {
+        int half = resources.size() / 2;
+        return ComboFailover.<String> builder()
+                .add(WeightFailover.<String> newGenericBuilder()
+                        .checker(checker::test, 1)
+                        .failReduceRate(0.1)
+                        .build(resources.subList(0, half), 100))
+                .add(WeightFailover.<String> newGenericBuilder()
+                        .checker(checker::test, 1)
+                        .failReduceRate(0.1)
+                        .build(resources.subList(half, resources.size()), 100))
+                .build();
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.phantomthief.failover.impl.benchmark.suite;
+
+import java.io.File;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 运行本package下的所有压测，每个线程数跑一遍，都带上GC分配profiler（gc.alloc.rate.norm就是每次操作分配的字节数），
+ * 结果以json格式写到benchmark.output目录（默认target/jmh）下，作为修改热点路径前后对比的基线。
+ *
+ * 通过maven运行：{@code mvn -P benchmark test}，可以用-Dbenchmark.threads=1,4,16指定线程数，
+ * 用-Dbenchmark.args="..."传入额外的JMH参数，比如只跑一部分：
+ * {@code -Dbenchmark.args="PriorityFailoverBenchmark -p totalSize=10"}。
+ */
+public class FailoverBenchmarkSuite {
+
+    private static final String SUITE_PACKAGE = Pattern.quote(
+            FailoverBenchmarkSuite.class.getPackage().getName() + ".");
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        String[] threadsList = System.getProperty("benchmark.threads", "1,4").split(",");
+        File outputDir = new File(System.getProperty("benchmark.output", "target/jmh"));
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IllegalStateException("can't create output dir:" + outputDir);
+        }
+        for (String threadsValue : threadsList) {
+            int threads = Integer.parseInt(threadsValue.trim());
+            String resultFile = new File(outputDir, "suite-t" + threads + ".json").getPath();
+            Options options = new OptionsBuilder()
+                    .parent(cmdOptions)
+                    // includes from the command line are merged, so the ad-hoc benchmarks outside are excluded
+                    .include(SUITE_PACKAGE)
+                    .exclude("^(?!" + SUITE_PACKAGE + ")")
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultFile)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
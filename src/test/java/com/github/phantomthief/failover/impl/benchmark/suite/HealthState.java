@@ -0,0 +1,19 @@
+package com.github.phantomthief.failover.impl.benchmark.suite;
+
+/**
+ * 压测时资源的健康状态。
+ */
+public enum HealthState {
+    /**
+     * 所有资源都是健康的，所有调用都报告成功。
+     */
+    HEALTHY,
+    /**
+     * 每5个资源中有1个被down掉，并且健康检查一直失败，其余资源的调用都报告成功。
+     */
+    DEGRADED,
+    /**
+     * 所有资源的健康检查都成功，但是每16次调用有1次报告失败，资源的权重在不停的升降。
+     */
+    FLAPPING
+}
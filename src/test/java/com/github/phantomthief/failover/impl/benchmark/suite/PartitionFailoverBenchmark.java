@@ -0,0 +1,21 @@
+package com.github.phantomthief.failover.impl.benchmark.suite;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.github.phantomthief.failover.SimpleFailover;
+import com.github.phantomthief.failover.impl.PartitionFailover;
+
+public class PartitionFailoverBenchmark extends AbstractFailoverBenchmark {
+
+    private static final int CORE_SIZE = 5;
+
+    @Override
+    protected SimpleFailover<String> buildFailover(List<String> resources, Predicate<String> checker) {
+        return PartitionFailover.<String> newBuilder()
+                .checker(checker::test, 1)
+                .corePartitionSize(Math.min(CORE_SIZE, resources.size()))
+                .failReduceRate(0.1)
+                .build(resources, 100);
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.phantomthief.failover.impl.benchmark.suite;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Param;
+
+import com.github.phantomthief.failover.SimpleFailover;
+import com.github.phantomthief.failover.impl.PriorityFailover;
+import com.github.phantomthief.failover.impl.PriorityFailoverBuilder;
+
+public class PriorityFailoverBenchmark extends AbstractFailoverBenchmark {
+
+    @Param({"false", "true"})
+    private boolean concurrencyControl;
+
+    @Override
+    protected SimpleFailover<String> buildFailover(List<String> resources, Predicate<String> checker) {
+        PriorityFailoverBuilder<String> builder = PriorityFailover.newBuilder();
+        resources.forEach(res -> builder.addResource(res, 100));
+        return builder.checker(checker)
+                .concurrencyControl(concurrencyControl)
+                .build();
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.phantomthief.failover.impl.benchmark.suite;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.github.phantomthief.failover.SimpleFailover;
+import com.github.phantomthief.failover.impl.RecoverableCheckFailover;
+
+public class RecoverableCheckFailoverBenchmark extends AbstractFailoverBenchmark {
+
+    @Override
+    protected SimpleFailover<String> buildFailover(List<String> resources, Predicate<String> checker) {
+        return RecoverableCheckFailover.<String> newGenericBuilder()
+                .setChecker(checker)
+                .build(resources);
+    }
+}
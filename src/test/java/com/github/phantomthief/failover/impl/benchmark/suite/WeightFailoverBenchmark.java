@@ -0,0 +1,18 @@
+package com.github.phantomthief.failover.impl.benchmark.suite;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.github.phantomthief.failover.SimpleFailover;
+import com.github.phantomthief.failover.impl.WeightFailover;
+
+public class WeightFailoverBenchmark extends AbstractFailoverBenchmark {
+
+    @Override
+    protected SimpleFailover<String> buildFailover(List<String> resources, Predicate<String> checker) {
+        return WeightFailover.<String> newGenericBuilder()
+                .checker(checker::test, 1)
+                .failReduceRate(0.1)
+                .build(resources, 100);
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.phantomthief.failover.impl.benchmark.suite;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.phantomthief.failover.util.AliasMethod;
+import com.github.phantomthief.failover.util.Weight;
+
+/**
+ * 带权随机选择的工具类，{@link AliasMethod}不支持排除，所以exclusionSize参数放在单独的{@link Exclusions}里，
+ * 只有{@link Weight}的压测使用，aliasMethod不会按它重复运行。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@State(Scope.Benchmark)
+public class WeightSelectBenchmark {
+
+    @Param({"10", "1000"})
+    private int totalSize;
+
+    private Weight<String> weight;
+    private AliasMethod<String> aliasMethod;
+
+    @Setup
+    public void init() {
+        weight = new Weight<>();
+        Map<String, Integer> weightMap = new HashMap<>();
+        for (int i = 0; i < totalSize; i++) {
+            int weightValue = ThreadLocalRandom.current().nextInt(1, 100);
+            String node = "key" + i;
+            weight.add(node, weightValue);
+            weightMap.put(node, weightValue);
+        }
+        aliasMethod = new AliasMethod<>(weightMap);
+    }
+
+    @Benchmark
+    public String weight(Exclusions exclusions) {
+        return exclusions.nodes.isEmpty() ? weight.get() : weight.getWithout(exclusions.nodes);
+    }
+
+    @Benchmark
+    public String aliasMethod() {
+        return aliasMethod.get();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Exclusions {
+
+        @Param({"0", "3"})
+        private int exclusionSize;
+
+        private Set<String> nodes;
+
+        @Setup
+        public void init(WeightSelectBenchmark benchmark) {
+            nodes = new HashSet<>();
+            for (int i = 0; i < Math.min(exclusionSize, benchmark.totalSize); i++) {
+                nodes.add("key" + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.phantomthief.failover.impl.checker;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+class DedupCheckerTest {
+
+    @Test
+    void testConcurrentChecks() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        DedupChecker<String> checker = new DedupChecker<>(r -> {
+            count.incrementAndGet();
+            Uninterruptibles.sleepUninterruptibly(200, MILLISECONDS);
+            return r.equals("a");
+        }, Duration.ZERO);
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(executor.submit(() -> checker.test("a")));
+        }
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+        assertEquals(1, count.get());
+        // not reused after the check finished
+        assertTrue(checker.test("a"));
+        assertFalse(checker.test("b"));
+        assertEquals(3, count.get());
+        executor.shutdown();
+    }
+
+    @Test
+    void testResultTtl() {
+        AtomicInteger count = new AtomicInteger();
+        DedupChecker<String> checker = new DedupChecker<>(r -> count.incrementAndGet() > 0,
+                Duration.ofMillis(100));
+        assertTrue(checker.test("a"));
+        assertTrue(checker.test("a"));
+        assertEquals(1, count.get());
+        assertTrue(checker.test("b"));
+        assertEquals(2, count.get());
+        Uninterruptibles.sleepUninterruptibly(150, MILLISECONDS);
+        assertTrue(checker.test("a"));
+        assertEquals(3, count.get());
+    }
+
+    @Test
+    void testException() {
+        AtomicInteger count = new AtomicInteger();
+        DedupChecker<String> checker = new DedupChecker<>(r -> {
+            if (count.incrementAndGet() == 1) {
+                throw new IllegalStateException();
+            }
+            return true;
+        }, Duration.ofSeconds(10));
+        assertThrows(IllegalStateException.class, () -> checker.test("a"));
+        // failure is not cached
+        assertTrue(checker.test("a"));
+        assertEquals(2, count.get());
+    }
+}
@@ -1,14 +1,20 @@
 package com.github.phantomthief.failover.impl.checker;
 
 import static com.github.phantomthief.failover.impl.checker.SimplePortChecker.asyncCheck;
+import static com.github.phantomthief.failover.impl.checker.SimplePortChecker.batchCheck;
 import static com.github.phantomthief.failover.impl.checker.SimplePortChecker.check;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
@@ -18,6 +24,7 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.ListenableFuture;
 
 /**
@@ -50,6 +57,37 @@ class SimplePortCheckerTest {
         future2.get(1, SECONDS);
     }
 
+    @Test
+    void testBatch() throws IOException {
+        List<ServerSocket> servers = new ArrayList<>();
+        List<HostAndPort> endpoints = new ArrayList<>();
+        try {
+            for (int i = 0; i < 50; i++) {
+                ServerSocket server = new ServerSocket(0);
+                servers.add(server);
+                endpoints.add(HostAndPort.fromParts("localhost", server.getLocalPort()));
+            }
+            ServerSocket closed = new ServerSocket(0);
+            HostAndPort closedPort = HostAndPort.fromParts("localhost", closed.getLocalPort());
+            closed.close();
+            HostAndPort unresolved = HostAndPort.fromParts("not-exists.invalid", port);
+            endpoints.add(0, closedPort);
+            endpoints.add(unresolved);
+
+            Map<HostAndPort, Boolean> result = batchCheck(endpoints, 1000);
+            assertEquals(endpoints, new ArrayList<>(result.keySet()));
+            assertFalse(result.get(closedPort));
+            assertFalse(result.get(unresolved));
+            for (int i = 1; i <= 50; i++) {
+                assertTrue(result.get(endpoints.get(i)));
+            }
+        } finally {
+            for (ServerSocket server : servers) {
+                server.close();
+            }
+        }
+    }
+
     @AfterEach
     void tearDown() throws IOException {
         serverSocket.close();
@@ -0,0 +1,136 @@
+package com.github.phantomthief.failover.util;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.failover.impl.PriorityFailover;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+class HashedWheelCheckSchedulerTest {
+
+    private ExecutorService worker;
+    private HashedWheelCheckScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        worker = Executors.newFixedThreadPool(2);
+        // 8 slots of 5ms, delays longer than 40ms need more than one round
+        scheduler = new HashedWheelCheckScheduler(Duration.ofMillis(5), 8, 0.2, worker, Thread::new);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(1, SECONDS));
+        worker.shutdown();
+    }
+
+    @Test
+    void testSchedule() throws Exception {
+        long start = System.nanoTime();
+        ScheduledFuture<String> future = scheduler.schedule(() -> "ok", 100, MILLISECONDS);
+        assertTrue(future.getDelay(MILLISECONDS) > 50);
+        assertEquals("ok", future.get());
+        long cost = NANOSECONDS.toMillis(System.nanoTime() - start);
+        // never earlier than the delay, and late for at most a tick plus jitter
+        assertTrue(cost >= 100, "cost:" + cost);
+        assertTrue(cost < 300, "cost:" + cost);
+    }
+
+    @Test
+    void testFixedDelay() {
+        AtomicInteger count = new AtomicInteger();
+        ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(count::incrementAndGet, 0, 20,
+                MILLISECONDS);
+        Uninterruptibles.sleepUninterruptibly(500, MILLISECONDS);
+        future.cancel(false);
+        int c = count.get();
+        // 20ms delay plus at most 4ms jitter and a 5ms tick
+        assertTrue(c >= 10 && c <= 26, "count:" + c);
+        Uninterruptibles.sleepUninterruptibly(100, MILLISECONDS);
+        assertEquals(c, count.get());
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    void testFixedRate() {
+        AtomicInteger count = new AtomicInteger();
+        ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(count::incrementAndGet, 0, 50, MILLISECONDS);
+        Uninterruptibles.sleepUninterruptibly(520, MILLISECONDS);
+        future.cancel(false);
+        int c = count.get();
+        assertTrue(c >= 9 && c <= 11, "count:" + c);
+    }
+
+    @Test
+    void testExceptionStopsPeriodic() {
+        AtomicInteger count = new AtomicInteger();
+        ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(() -> {
+            count.incrementAndGet();
+            throw new IllegalStateException();
+        }, 0, 10, MILLISECONDS);
+        Uninterruptibles.sleepUninterruptibly(100, MILLISECONDS);
+        assertEquals(1, count.get());
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+    }
+
+    @Test
+    void testManyTasks() {
+        AtomicInteger count = new AtomicInteger();
+        for (int i = 0; i < 10000; i++) {
+            scheduler.schedule(count::incrementAndGet, i % 200, MILLISECONDS);
+        }
+        Uninterruptibles.sleepUninterruptibly(500, MILLISECONDS);
+        assertEquals(10000, count.get());
+    }
+
+    @Test
+    void testShutdown() {
+        AtomicInteger count = new AtomicInteger();
+        ScheduledFuture<?> future = scheduler.schedule(count::incrementAndGet, 100, MILLISECONDS);
+        scheduler.shutdown();
+        Uninterruptibles.sleepUninterruptibly(200, MILLISECONDS);
+        assertEquals(0, count.get());
+        assertTrue(future.isCancelled());
+        assertTrue(scheduler.isTerminated());
+        assertThrows(RejectedExecutionException.class,
+                () -> scheduler.schedule(count::incrementAndGet, 1, MILLISECONDS));
+    }
+
+    @Test
+    void testPriorityFailover() {
+        AtomicInteger checkCount = new AtomicInteger();
+        PriorityFailover<String> failover = PriorityFailover.<String> newBuilder()
+                .addResource("a", 100, 0)
+                .checker(r -> {
+                    checkCount.incrementAndGet();
+                    return true;
+                })
+                .checkDuration(Duration.ofMillis(20))
+                .checkExecutor(scheduler)
+                .startCheckTaskImmediately(true)
+                .build();
+        failover.down("a");
+        Uninterruptibles.sleepUninterruptibly(200, MILLISECONDS);
+        assertTrue(checkCount.get() > 0);
+        assertTrue(failover.getResourceStatus("a").getCurrentWeight() > 0);
+        failover.close();
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.phantomthief.failover.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * 在打好的multi-release jar上运行（failsafe），验证Java 11以上加载的是META-INF/versions/11下提交JFR事件的版本。
+ */
+class FailoverEventsIT {
+
+    private static final String PREFIX = "com.github.phantomthief.failover.";
+
+    @Test
+    void testEvents() throws Exception {
+        String location = FailoverEvents.class.getProtectionDomain().getCodeSource().getLocation().toString();
+        assertTrue(location.endsWith(".jar"), location);
+
+        Path file = Files.createTempFile("failover", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"WeightChange", "Down", "SelectionMiss", "GroupSwitch"}) {
+                recording.enable(PREFIX + name);
+            }
+            recording.start();
+            PriorityFailover<String> failover = PriorityFailover.<String> newBuilder()
+                    .name("jfr")
+                    .addResource("a", 100)
+                    .build();
+            failover.down("a");
+            assertNull(failover.getOneAvailable());
+            failover.close();
+
+            PriorityFailover<String> grouped = PriorityFailover.<String> newBuilder()
+                    .name("group")
+                    .addResource("p0", 100, 0, 0)
+                    .addResource("p1", 100, 0, 1)
+                    .build();
+            grouped.down("p0");
+            for (int i = 0; i < 10; i++) {
+                assertEquals("p1", grouped.getOneAvailable());
+            }
+            grouped.close();
+            recording.stop();
+            recording.dump(file);
+        }
+        try {
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<RecordedEvent> switches = events.stream()
+                    .filter(e -> e.getEventType().getName().equals(PREFIX + "GroupSwitch"))
+                    .collect(Collectors.toList());
+            // only the actual switch is recorded, not every pick from the lower priority group
+            assertEquals(1, switches.size());
+            assertEquals(0, switches.get(0).getInt("previousPriority"));
+            assertEquals(1, switches.get(0).getInt("selectedPriority"));
+
+            Map<String, RecordedEvent> byName = events.stream()
+                    .filter(e -> e.getEventType().getName().startsWith(PREFIX))
+                    .collect(Collectors.toMap(e -> e.getEventType().getName().substring(PREFIX.length()),
+                            Function.identity(), (a, b) -> a));
+
+            RecordedEvent weightChange = byName.get("WeightChange");
+            assertEquals("jfr", weightChange.getString("failover"));
+            assertEquals("a", weightChange.getString("resource"));
+            assertEquals(100, weightChange.getDouble("oldWeight"));
+            assertEquals(0, weightChange.getDouble("newWeight"));
+
+            RecordedEvent down = byName.get("Down");
+            assertEquals("a", down.getString("resource"));
+            assertNull(down.getStackTrace());
+
+            RecordedEvent miss = byName.get("SelectionMiss");
+            assertEquals(0, miss.getInt("exclusions"));
+            assertNull(miss.getStackTrace());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}